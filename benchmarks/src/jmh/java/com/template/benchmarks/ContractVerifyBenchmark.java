@@ -0,0 +1,94 @@
+package com.template.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.template.SharedItemContract;
+import com.template.SharedItemState;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.transactions.LedgerTransaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of SharedItemContract.verify for single and batched Create and ResolveTo transactions.
+ */
+@State(Scope.Benchmark)
+public class ContractVerifyBenchmark {
+    @Param({"1", "10", "100"})
+    public int items;
+
+    @Param({"32", "256", "2048"})
+    public int linkLength;
+
+    private final SharedItemContract contract = new SharedItemContract();
+    private LedgerTransaction create;
+    private LedgerTransaction resolveTo;
+
+    @Setup
+    public void setup() {
+        TimeWindow window = TimeWindow.withTolerance(Instant.ofEpochMilli(Fixtures.TIMESTAMP), Duration.ofSeconds(30));
+
+        List<SharedItemState> unresolved = Fixtures.states(items, linkLength, false);
+        create = ledgerTransaction(
+                ImmutableList.of(),
+                outputs(unresolved),
+                new SharedItemContract.Create(),
+                window);
+
+        List<TransactionState<ContractState>> resolved = new ArrayList<>();
+        for (SharedItemState state: unresolved) {
+            SharedItemState output = new SharedItemState(state.getFrom(), Fixtures.BOB, state.getToTmpId(), state.getLink(), state.getTimestamp());
+            resolved.add(new TransactionState<>(output, SharedItemContract.SHARED_SPACE_CONTRACT_ID, Fixtures.NOTARY));
+        }
+
+        List<StateAndRef<ContractState>> inputs = new ArrayList<>();
+        for (StateAndRef<SharedItemState> input: Fixtures.stateAndRefs(unresolved)) {
+            inputs.add(new StateAndRef<>(new TransactionState<>(input.getState().getData(), SharedItemContract.SHARED_SPACE_CONTRACT_ID, Fixtures.NOTARY), input.getRef()));
+        }
+
+        resolveTo = ledgerTransaction(inputs, resolved, new SharedItemContract.ResolveTo(), null);
+    }
+
+    private static List<TransactionState<ContractState>> outputs(List<SharedItemState> states) {
+        List<TransactionState<ContractState>> outputs = new ArrayList<>();
+        for (SharedItemState state: states) {
+            outputs.add(new TransactionState<>(state, SharedItemContract.SHARED_SPACE_CONTRACT_ID, Fixtures.NOTARY));
+        }
+
+        return outputs;
+    }
+
+    private static LedgerTransaction ledgerTransaction(List<StateAndRef<ContractState>> inputs,
+                                                       List<TransactionState<ContractState>> outputs,
+                                                       CommandData command,
+                                                       TimeWindow window) {
+        CommandWithParties<CommandData> commandWithParties = new CommandWithParties<>(
+                ImmutableList.of(Fixtures.ALICE.getOwningKey()),
+                ImmutableList.of(Fixtures.ALICE),
+                command);
+
+        return new LedgerTransaction(
+                inputs,
+                outputs,
+                ImmutableList.of(commandWithParties),
+                ImmutableList.of(),
+                SecureHash.randomSHA256(),
+                Fixtures.NOTARY,
+                window,
+                new PrivacySalt());
+    }
+
+    @Benchmark
+    public void verifyCreate() {
+        contract.verify(create);
+    }
+
+    @Benchmark
+    public void verifyResolveTo() {
+        contract.verify(resolveTo);
+    }
+}
@@ -0,0 +1,69 @@
+package com.template.benchmarks;
+
+import com.template.SharedItemContract;
+import com.template.SharedItemState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parties and states shared by the benchmarks.
+ */
+final class Fixtures {
+    static final Party NOTARY = party("Notary", "London", "GB");
+    static final Party ALICE = party("PartyA", "London", "GB");
+    static final Party BOB = party("PartyB", "New York", "US");
+    static final long TIMESTAMP = 1508284800000L;
+    static final String TMP_ID = "tmp";
+
+    private Fixtures() {}
+
+    static Party party(String organisation, String locality, String country) {
+        return new Party(new CordaX500Name(organisation, locality, country), Crypto.generateKeyPair().getPublic());
+    }
+
+    /**
+     * @return a link of the given length, distinct for each index
+     */
+    static String link(int index, int length) {
+        String prefix = "https://example.com/" + index + "/";
+        if (prefix.length() >= length) return prefix.substring(0, length);
+
+        char[] padding = new char[length - prefix.length()];
+        Arrays.fill(padding, 'x');
+        return prefix + new String(padding);
+    }
+
+    /**
+     * States as produced by a single Create: every state goes to the same 'toTmpId', as the contract requires.
+     *
+     * @param resolved whether 'to' is set, or only 'toTmpId'
+     */
+    static List<SharedItemState> states(int count, int linkLength, boolean resolved) {
+        List<SharedItemState> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            states.add(new SharedItemState(ALICE, resolved ? BOB : null, TMP_ID, link(i, linkLength), TIMESTAMP));
+        }
+
+        return states;
+    }
+
+    static List<StateAndRef<SharedItemState>> stateAndRefs(List<SharedItemState> states) {
+        SecureHash txId = SecureHash.randomSHA256();
+        List<StateAndRef<SharedItemState>> stateAndRefs = new ArrayList<>(states.size());
+        for (int i = 0; i < states.size(); i++) {
+            TransactionState<SharedItemState> state = new TransactionState<>(states.get(i), SharedItemContract.SHARED_SPACE_CONTRACT_ID, NOTARY);
+            stateAndRefs.add(new StateAndRef<>(state, new StateRef(txId, i)));
+        }
+
+        return stateAndRefs;
+    }
+}
@@ -0,0 +1,51 @@
+package com.template.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import com.template.SharedItemJacksonModule;
+import com.template.SharedItemState;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.StateAndRef;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+
+/**
+ * Cost of serialising a StateAndRef<SharedItemState> listing to JSON with corda-jackson's mapper as is, with the
+ * afterburner module only, and with the web API's streaming serializers and the afterburner module.
+ */
+@State(Scope.Benchmark)
+public class JacksonModuleBenchmark {
+    @Param({"10000"})
+    public int items;
+
+    @Param({"256"})
+    public int linkLength;
+
+    private final ObjectMapper defaultMapper = JacksonSupport.createNonRpcMapper();
+    private final ObjectMapper afterburnerMapper = JacksonSupport.createNonRpcMapper().registerModule(new AfterburnerModule());
+    private final ObjectMapper customMapper = SharedItemJacksonModule.register(JacksonSupport.createNonRpcMapper());
+    private List<StateAndRef<SharedItemState>> listing;
+
+    @Setup
+    public void setup() {
+        // SharedItemJacksonModuleTest checks the custom serializers write the same JSON as the default ones
+        listing = Fixtures.stateAndRefs(Fixtures.states(items, linkLength, true));
+    }
+
+    @Benchmark
+    public byte[] defaultSerializers() throws JsonProcessingException {
+        return defaultMapper.writeValueAsBytes(listing);
+    }
+
+    @Benchmark
+    public byte[] afterburner() throws JsonProcessingException {
+        return afterburnerMapper.writeValueAsBytes(listing);
+    }
+
+    @Benchmark
+    public byte[] customSerializers() throws JsonProcessingException {
+        return customMapper.writeValueAsBytes(listing);
+    }
+}
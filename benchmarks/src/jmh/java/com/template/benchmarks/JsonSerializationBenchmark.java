@@ -0,0 +1,54 @@
+package com.template.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.template.SharedItemState;
+import com.template.SharedItemView;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.StateAndRef;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Cost of serialising StateAndRef<SharedItemState> listings to JSON the way the web API does, and of the compact
+ * listings it sends with compact=true, as JSON or CBOR.
+ */
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+    @Param({"1", "100", "10000"})
+    public int items;
+
+    @Param({"32", "256", "2048"})
+    public int linkLength;
+
+    private final ObjectMapper mapper = JacksonSupport.createNonRpcMapper();
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    private List<StateAndRef<SharedItemState>> listing;
+
+    @Setup
+    public void setup() {
+        listing = Fixtures.stateAndRefs(Fixtures.states(items, linkLength, true));
+    }
+
+    private List<SharedItemView> views() {
+        return listing.stream().map(SharedItemView::of).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public byte[] serialiseListing() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(listing);
+    }
+
+    @Benchmark
+    public byte[] serialiseCompactListing() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(views());
+    }
+
+    @Benchmark
+    public byte[] serialiseCompactListingAsCbor() throws JsonProcessingException {
+        return cborMapper.writeValueAsBytes(views());
+    }
+}
@@ -0,0 +1,38 @@
+package com.template.benchmarks;
+
+import com.template.SharedItemState;
+import com.template.schema.SharedItemSchemaV2;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Cost of SharedItemState.generateMappedObject, which the node runs for every state it records.
+ */
+@State(Scope.Benchmark)
+public class StateMappingBenchmark {
+    @Param({"1", "100"})
+    public int items;
+
+    @Param({"32", "256", "2048"})
+    public int linkLength;
+
+    private final MappedSchema schema = new SharedItemSchemaV2();
+    private List<SharedItemState> states;
+
+    @Setup
+    public void setup() {
+        states = Fixtures.states(items, linkLength, true);
+    }
+
+    @Benchmark
+    public void generateMappedObject(Blackhole blackhole) {
+        for (SharedItemState state: states) {
+            PersistentState mapped = state.generateMappedObject(schema);
+            blackhole.consume(mapped);
+        }
+    }
+}
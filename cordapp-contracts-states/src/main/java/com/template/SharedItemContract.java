@@ -47,20 +47,23 @@ public class SharedItemContract implements Contract {
 //        }
     }
 
+    /**
+     * A Create transaction may create several items at once, all shared by the same party with the same counterparty.
+     * It has no inputs, so it only needs a notary if it carries a time window for the timestamps to be checked against.
+     */
     private void verifyCreate(LedgerTransaction tx, CommandWithParties<CommandData> command) {
         requireThat(check -> {
             // Constraints on the shape of the transaction.
             check.using("No inputs should be consumed when creating a shared space.", tx.getInputs().isEmpty());
-            check.using("There should be one output state.", tx.getOutputs().size() == 1);
-
-            final SharedItemState out = tx.outputsOfType(SharedItemState.class).get(0);
-            check.using("the output state should be of type SharedItemState", out != null);
+            check.using("There should be at least one output state.", !tx.getOutputs().isEmpty());
 
-            check.using("The shared link should be non-null.", out.getLink() != null);
+            final List<SharedItemState> outs = tx.outputsOfType(SharedItemState.class);
+            check.using("the output states should be of type SharedItemState", outs.size() == tx.getOutputs().size());
 
-            final Party from = out.getFrom();
-            final Party to = out.getTo();
-            final String toTmpId = out.getToTmpId();
+            final SharedItemState first = outs.get(0);
+            final Party from = first.getFrom();
+            final Party to = first.getTo();
+            final String toTmpId = first.getToTmpId();
 
             // Constraints on the signers.
             final List<PublicKey> signers = command.getSigners();
@@ -74,30 +77,52 @@ public class SharedItemContract implements Contract {
             }
 
             TimeWindow window = tx.getTimeWindow();
-            long timestamp = out.getTimestamp();
-            check.using(
-                    String.format("timestamp %d is in time window %d to %d", timestamp, window.getFromTime().toEpochMilli(), window.getUntilTime().toEpochMilli()),
-                    window.contains(Instant.ofEpochMilli(timestamp))
-            );
+            for (SharedItemState out: outs) {
+                check.using("The shared link should be non-null.", out.getLink() != null);
+                check.using("All outputs should have the same 'from'", from.equals(out.getFrom()));
+                check.using("All outputs should have the same 'to'", Objects.equals(to, out.getTo()));
+                check.using("All outputs should have the same 'toTmpId'", Objects.equals(toTmpId, out.getToTmpId()));
+
+                long timestamp = out.getTimestamp();
+                if (window == null) {
+                    // Not notarised: the timestamp is attested by the signers, who check it against their own clocks.
+                    check.using(String.format("timestamp %d should be positive", timestamp), timestamp > 0);
+                } else {
+                    check.using(
+                            String.format("timestamp %d is in time window %d to %d", timestamp, window.getFromTime().toEpochMilli(), window.getUntilTime().toEpochMilli()),
+                            window.contains(Instant.ofEpochMilli(timestamp))
+                    );
+                }
+            }
+
             return null;
         });
     }
 
+    /**
+     * A ResolveTo transaction may resolve several items at once: the i-th output is the resolved
+     * version of the i-th input.
+     */
     private void verifyResolveTo(LedgerTransaction tx, CommandWithParties<CommandData> command) {
         requireThat(check -> {
             // Constraints on the shape of the transaction.
-            check.using("There should be one input", tx.getInputs().size() == 1);
-            check.using("There should be one output state", tx.getOutputs().size() == 1);
-            SharedItemState before = (SharedItemState) tx.getInput(0);
-            SharedItemState after = (SharedItemState) tx.getOutput(0);
-            check.using("'from' should not have changed", before.getFrom().equals(after.getFrom()));
-            check.using("'timestamp' should not have changed",before.getTimestamp() == after.getTimestamp());
-            check.using("'link' should not have changed",before.getLink().equals(after.getLink()));
-            check.using("previous 'to' should have been null",before.getTo() == null);
-            check.using("'to' should be non-null",after.getTo() != null);
-            check.using("previous 'toTmpId' should have been non-null",before.getToTmpId() != null);
-            check.using("'toTmpId' should not have changed",after.getToTmpId().equals(before.getToTmpId()));
-            check.using("'from' and 'to' cannot be the same entity.", !after.getFrom().equals(after.getTo()));
+            check.using("There should be at least one input", !tx.getInputs().isEmpty());
+            check.using("There should be one output state per input", tx.getOutputs().size() == tx.getInputs().size());
+            for (int i = 0; i < tx.getInputs().size(); i++) {
+                check.using("inputs should be of type SharedItemState", tx.getInput(i) instanceof SharedItemState);
+                check.using("outputs should be of type SharedItemState", tx.getOutput(i) instanceof SharedItemState);
+                SharedItemState before = (SharedItemState) tx.getInput(i);
+                SharedItemState after = (SharedItemState) tx.getOutput(i);
+                check.using("'from' should not have changed", before.getFrom().equals(after.getFrom()));
+                check.using("'timestamp' should not have changed",before.getTimestamp() == after.getTimestamp());
+                check.using("'link' should not have changed",before.getLink().equals(after.getLink()));
+                check.using("previous 'to' should have been null",before.getTo() == null);
+                check.using("'to' should be non-null",after.getTo() != null);
+                check.using("previous 'toTmpId' should have been non-null",before.getToTmpId() != null);
+                check.using("'toTmpId' should not have changed",after.getToTmpId().equals(before.getToTmpId()));
+                check.using("'from' and 'to' cannot be the same entity.", !after.getFrom().equals(after.getTo()));
+            }
+
             return null;
         });
     }
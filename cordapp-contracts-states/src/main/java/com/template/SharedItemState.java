@@ -3,7 +3,7 @@ package com.template;
 //import com.template.schema.SharedSpaceSchemaV1;
 //import com.template.schema.Link;
 import com.google.common.collect.ImmutableList;
-import com.template.schema.SharedItemSchemaV1;
+import com.template.schema.SharedItemSchemaV2;
 import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.AbstractParty;
@@ -59,8 +59,8 @@ public class SharedItemState implements QueryableState, LinearState {
 
     @Override
     public PersistentState generateMappedObject(MappedSchema schema) {
-        if (schema instanceof SharedItemSchemaV1) {
-            return new SharedItemSchemaV1.PersistentSharedItem(
+        if (schema instanceof SharedItemSchemaV2) {
+            return new SharedItemSchemaV2.PersistentSharedItem(
                     from.getName().toString(),
                     to == null ? null : to.getName().toString(),
                     toTmpId,
@@ -75,7 +75,8 @@ public class SharedItemState implements QueryableState, LinearState {
 
     @Override
     public Iterable<MappedSchema> supportedSchemas() {
-        return ImmutableList.of(new SharedItemSchemaV1());
+        // Only the indexed V2 table is written. SharedItemSchemaMigration copies items recorded under V1 into it.
+        return ImmutableList.of(new SharedItemSchemaV2());
     }
 
     @Override
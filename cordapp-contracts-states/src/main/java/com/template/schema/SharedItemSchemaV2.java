@@ -0,0 +1,125 @@
+package com.template.schema;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Same columns as SharedItemSchemaV1, with indexes for the queries the API runs.
+ *
+ * Links can be any length, so they are looked up by share_link_hash, the hex SHA-256 of the link, which is
+ * fixed-width and cheap to index. Use hashLink to compute it.
+ *
+ * Items are only recorded here. Items recorded before upgrading only exist in the V1 table: SharedItemSchemaMigration
+ * copies them over the first time the node starts, and migration/shared-item-v1-to-v2.sql does the same offline.
+ */
+public class SharedItemSchemaV2 extends MappedSchema {
+    public SharedItemSchemaV2() {
+        super(SharedItemSchema.class, 2, ImmutableList.of(PersistentSharedItem.class));
+    }
+
+    public static Field getField(String name) {
+        try {
+            return SharedItemSchemaV2.PersistentSharedItem.class.getDeclaredField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException(String.format("expected SharedItemState to have field '%s'", name), e);
+        }
+    }
+
+    public static final Field from = getField("from");
+    public static final Field to = getField("to");
+    public static final Field toTmpId = getField("toTmpId");
+    public static final Field link = getField("link");
+    public static final Field timestamp = getField("timestamp");
+    public static final Field linearId = getField("linearId");
+    public static final Field linkHash = getField("linkHash");
+
+    /**
+     * @param field one of the fields above
+     * @return name of the field's column in shared_item_states_v2, for SQL the vault can't generate
+     */
+    public static String columnName(Field field) {
+        return field.getAnnotation(Column.class).name();
+    }
+
+    /**
+     * @return hex SHA-256 of the UTF-8 link, as stored in share_link_hash
+     */
+    public static String hashLink(String link) {
+        // HashCode.toString() is lower case hex
+        return Hashing.sha256().hashString(link, StandardCharsets.UTF_8).toString();
+    }
+
+    @Entity(name = "PersistentSharedItemV2")
+    @Table(name = "shared_item_states_v2", indexes = {
+            @Index(name = "shared_item_link_hash_idx", columnList = "share_link_hash"),
+            // unresolved items for a tmpId: share_to IS NULL AND share_to_tmp = ?
+            @Index(name = "shared_item_to_tmp_idx", columnList = "share_to_tmp, share_to"),
+            @Index(name = "shared_item_from_idx", columnList = "share_from"),
+            @Index(name = "shared_item_to_idx", columnList = "share_to"),
+            @Index(name = "shared_item_linear_id_idx", columnList = "linear_id"),
+            // since/until range scans and ordering by timestamp
+            @Index(name = "shared_item_timestamp_idx", columnList = "share_timestamp")
+    })
+    public static class PersistentSharedItem extends PersistentState {
+        @Column(name = "share_from") private final String from;
+        @Column(name = "share_to") private final String to;
+        @Column(name = "share_to_tmp") private final String toTmpId;
+        @Column(name = "share_link") private final String link;
+        @Column(name = "share_timestamp") private final long timestamp;
+        @Column(name = "linear_id") private final UUID linearId;
+        @Column(name = "share_link_hash", length = 64) private final String linkHash;
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getToTmpId() {
+            return toTmpId;
+        }
+
+        public String getLink() {
+            return link;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public String getLinkHash() {
+            return linkHash;
+        }
+
+        public PersistentSharedItem() {
+            this("", "", "", "", 0L, UUID.randomUUID());
+        }
+
+        public PersistentSharedItem(String from, String to, String toTmpId, String link, Long timestamp, UUID linearId) {
+            this.from = from;
+            this.to = to;
+            this.toTmpId = toTmpId;
+            this.link = link;
+            this.timestamp = timestamp;
+            this.linearId = linearId;
+            this.linkHash = link == null ? null : hashLink(link);
+        }
+
+    }
+}
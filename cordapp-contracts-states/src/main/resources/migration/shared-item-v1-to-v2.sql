@@ -0,0 +1,49 @@
+-- Copies items recorded under SharedItemSchemaV1 (shared_item_states) into the
+-- indexed SharedItemSchemaV2 table (shared_item_states_v2), and fills in share_link_hash
+-- for rows recorded before it was added.
+--
+-- The node does this itself on start (see SharedItemSchemaMigration). To do it offline instead,
+-- start the node once with the new CorDapp so that shared_item_states_v2 is created,
+-- stop it, then run this against the node database, e.g. with the H2 shell:
+--   java -cp h2.jar org.h2.tools.RunScript -url jdbc:h2:<node dir>/persistence -user sa -script shared-item-v1-to-v2.sql
+-- Rows that were already copied are skipped, so the script can be run more than once. It ends by recording
+-- the migration in shared_item_migrations, so the node doesn't look for rows to copy again.
+--
+-- The INSERTs are portable. The UPDATE, DROP INDEX and CREATE TABLE are written for H2, the node's default
+-- database; the equivalents for other databases are given next to them.
+
+INSERT INTO shared_item_states_v2
+    (transaction_id, output_index, share_from, share_to, share_to_tmp, share_link, share_timestamp, linear_id)
+SELECT v1.transaction_id, v1.output_index, v1.share_from, v1.share_to, v1.share_to_tmp, v1.share_link, v1.share_timestamp, v1.linear_id
+FROM shared_item_states v1
+WHERE NOT EXISTS (
+    SELECT 1 FROM shared_item_states_v2 v2
+    WHERE v2.transaction_id = v1.transaction_id AND v2.output_index = v1.output_index
+);
+
+-- same as SharedItemSchemaV2.hashLink: lower case hex SHA-256 of the UTF-8 link. H2 only; elsewhere set
+-- share_link_hash to:
+--   PostgreSQL 11+: encode(sha256(convert_to(share_link, 'UTF8')), 'hex')
+--   SQL Server 2019+ (with a UTF-8 collation, so VARCHAR holds UTF-8):
+--                   LOWER(CONVERT(VARCHAR(64), HASHBYTES('SHA2_256', CAST(share_link AS VARCHAR(MAX))), 2))
+--   Oracle 12c+:    LOWER(RAWTOHEX(STANDARD_HASH(share_link, 'SHA256')))
+-- or leave it to SharedItemSchemaMigration, which hashes links in Java on any database.
+UPDATE shared_item_states_v2
+SET share_link_hash = CAST(HASH('SHA256', STRINGTOUTF8(share_link), 1) AS VARCHAR)
+WHERE share_link_hash IS NULL AND share_link IS NOT NULL;
+
+-- links are looked up by share_link_hash instead. Same syntax on PostgreSQL; on SQL Server,
+-- DROP INDEX IF EXISTS shared_item_link_idx ON shared_item_states_v2
+DROP INDEX IF EXISTS shared_item_link_idx;
+
+-- the marker SharedItemSchemaMigration checks for. CREATE TABLE IF NOT EXISTS is the same on PostgreSQL; on
+-- SQL Server, IF OBJECT_ID('shared_item_migrations') IS NULL CREATE TABLE ...
+CREATE TABLE IF NOT EXISTS shared_item_migrations (
+    migration_id VARCHAR(64) NOT NULL PRIMARY KEY,
+    completed_at TIMESTAMP NOT NULL
+);
+
+INSERT INTO shared_item_migrations (migration_id, completed_at)
+SELECT 'shared-item-v1-to-v2', CURRENT_TIMESTAMP
+FROM (SELECT 1 AS one) m
+WHERE NOT EXISTS (SELECT 1 FROM shared_item_migrations WHERE migration_id = 'shared-item-v1-to-v2');
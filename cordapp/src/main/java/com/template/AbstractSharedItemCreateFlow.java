@@ -0,0 +1,151 @@
+package com.template;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.StateAndContract;
+import net.corda.core.contracts.TimeWindow;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.template.SharedItemContract.SHARED_SPACE_CONTRACT_ID;
+
+/**
+ * Records a Create transaction with one SharedItemState per link, shared with the same counterparty or tmpId.
+ * SharedItemCreateFlow and SharedItemBulkCreateFlow only differ in how many links they take, and each is
+ * initiating so that it is answered by its own responder.
+ */
+abstract class AbstractSharedItemCreateFlow extends FlowLogic<SignedTransaction> {
+    private final Party to;
+    private final String toTmpId;
+    private final List<String> links;
+    private final long timestamp;
+    private final boolean notarised;
+    private static final Step ID_OTHER_NODES = new Step("Identifying other nodes on the network.");
+    private static final Step OTHER_TX_COMPONENTS = new Step("Gathering a transaction's other components.");
+    private static final Step TX_BUILDING = new Step("Building a transaction.");
+    private static final Step TX_VERIFICATION = new Step("Verifying a transaction.");
+    private static final Step TX_SIGNING = new Step("Signing a transaction.");
+    private static final Step SIGS_GATHERING = new Step("Gathering a transaction's signatures.") {
+        // Wiring up a child progress tracker allows us to see the
+        // subflow's progress steps in our flow's progress tracker.
+        @Override
+        public ProgressTracker childProgressTracker() {
+            return CollectSignaturesFlow.tracker();
+        }
+    };
+    private static final Step VERIFYING_SIGS = new Step("Verifying a transaction's signatures.");
+    private static final Step FINALISATION = new Step("Finalising a transaction.") {
+        @Override
+        public ProgressTracker childProgressTracker() {
+            return FinalityFlow.tracker();
+        }
+    };
+
+    private final ProgressTracker progressTracker = new ProgressTracker(
+            ID_OTHER_NODES,
+            OTHER_TX_COMPONENTS,
+            TX_BUILDING,
+            TX_VERIFICATION,
+            TX_SIGNING,
+            SIGS_GATHERING,
+            VERIFYING_SIGS,
+            FINALISATION
+    );
+
+    /**
+     * @param notarised if false, the transaction carries no time window and, having no inputs, is recorded without
+     *                  involving the notary. The timestamp is then attested by the signers only.
+     */
+    AbstractSharedItemCreateFlow(Party to, String toTmpId, List<String> links, boolean notarised) {
+        this.to = to;
+        this.toTmpId = toTmpId;
+        this.links = ImmutableList.copyOf(links);
+        this.timestamp = System.currentTimeMillis();
+        this.notarised = notarised;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    /**
+     * The flow logic is encapsulated within the call() method.
+     */
+    @Suspendable
+    @Override
+    public SignedTransaction call() throws FlowException {
+        if (!notarised) {
+            // Without a time window only the signers attest to the timestamp, and without a counterparty that is us.
+            // The flow may also have been started long after it was constructed, e.g. after a node restart.
+            long skew = Math.abs(getServiceHub().getClock().millis() - timestamp);
+            if (skew > CreateFlowResponder.MAX_CLOCK_SKEW.toMillis()) {
+                throw new FlowException(String.format("timestamp %d is more than %s off our clock, create it again or notarise it",
+                        timestamp, CreateFlowResponder.MAX_CLOCK_SKEW));
+            }
+        }
+
+        progressTracker.setCurrentStep(ID_OTHER_NODES);
+
+        // We retrieve the notary identity from the network map.
+        final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+
+        progressTracker.setCurrentStep(OTHER_TX_COMPONENTS);
+
+        // only consumer's signature is required
+        List<PublicKey> requiredSigners = new ArrayList<>();
+        requiredSigners.add(getOurIdentity().getOwningKey());
+        if (to != null) requiredSigners.add(to.getOwningKey());
+
+        Command cmd = new Command<>(new SharedItemContract.Create(), ImmutableList.copyOf(requiredSigners));
+
+        progressTracker.setCurrentStep(TX_BUILDING);
+
+        // One output per link, all in the same transaction.
+        final TransactionBuilder txBuilder = new TransactionBuilder(notary);
+        for (String link: links) {
+            SharedItemState outputState = new SharedItemState(getOurIdentity(), to, toTmpId, link, timestamp);
+            txBuilder.withItems(new StateAndContract(outputState, SHARED_SPACE_CONTRACT_ID));
+        }
+
+        txBuilder.withItems(cmd);
+        if (notarised) {
+            txBuilder.withItems(TimeWindow.withTolerance(getServiceHub().getClock().instant(), Duration.ofSeconds(30)));
+        }
+
+        progressTracker.setCurrentStep(TX_VERIFICATION);
+        txBuilder.verify(getServiceHub());
+
+        progressTracker.setCurrentStep(TX_SIGNING);
+        // Signing the transaction.
+        final SignedTransaction signedTx = getServiceHub().signInitialTransaction(txBuilder);
+
+        progressTracker.setCurrentStep(SIGS_GATHERING);
+
+        if (to == null) {
+            return subFlow(new FinalityFlow(signedTx));
+        }
+
+        // Creating a session with the other party.
+        FlowSession recipientSession = initiateFlow(to);
+
+        // Obtaining the counterparty's signature.
+        SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(
+                signedTx, ImmutableList.of(recipientSession), CollectSignaturesFlow.tracker()));
+
+        progressTracker.setCurrentStep(VERIFYING_SIGS);
+
+        // Finalising the transaction.
+        return subFlow(new FinalityFlow(fullySignedTx));
+    }
+}
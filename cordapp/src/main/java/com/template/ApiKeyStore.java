@@ -0,0 +1,192 @@
+package com.template;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * API keys accepted by the web API, read from a file with one key per line.
+ *
+ * Keys are held as hex SHA-256 digests in a hash set, so checking a key costs the same however many keys there
+ * are, and the time a lookup takes depends on the key's digest rather than on the key. If the file lives on the file
+ * system, it is watched and reloaded when it changes, so keys can be issued or revoked without a restart.
+ *
+ * If there is no key file, or it has no keys, every request is allowed. Once keys have been loaded, a key file that
+ * goes missing or has no keys is treated as a failed write and the previous keys are kept, so an editor saving the
+ * file can't briefly let everyone in. Restart to stop requiring keys.
+ */
+public class ApiKeyStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ApiKeyStore.class);
+    // number of hex digits of a key's digest used to identify it in request counters
+    private static final int KEY_ID_LENGTH = 8;
+
+    private final Path path;
+    private volatile Set<String> digests = Collections.emptySet();
+    private final ConcurrentMap<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private WatchService watcher;
+
+    /**
+     * @param path key file, or null if there is none
+     */
+    public ApiKeyStore(Path path) {
+        this.path = path;
+        if (path == null) {
+            logger.info("No API Key set for API");
+            return;
+        }
+
+        reload();
+        watch();
+    }
+
+    /**
+     * Loads keys from a classpath resource, watching it for changes if it is a file on the file system.
+     */
+    public static ApiKeyStore fromResource(ClassLoader classLoader, String name) {
+        URL url = classLoader.getResource(name);
+        if (url == null) return new ApiKeyStore(null);
+
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new ApiKeyStore(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("invalid API key file location: " + url, e);
+            }
+        }
+
+        // packaged in a jar: can't change without a restart
+        ApiKeyStore store = new ApiKeyStore(null);
+        try (InputStream is = url.openStream()) {
+            store.digests = digest(readLines(is));
+        } catch (IOException e) {
+            logger.info("No API Key set for API");
+        }
+
+        return store;
+    }
+
+    public boolean isEnabled() {
+        return !digests.isEmpty();
+    }
+
+    /**
+     * @return true if the key is accepted, in which case a request is counted against it
+     */
+    public boolean check(String apiKey) {
+        Set<String> current = digests;
+        if (current.isEmpty()) return true;
+        if (apiKey == null) return false;
+
+        String hex = sha256Hex(apiKey);
+        if (!current.contains(hex)) return false;
+
+        requests.computeIfAbsent(hex.substring(0, KEY_ID_LENGTH), id -> new LongAdder()).increment();
+        return true;
+    }
+
+    /**
+     * @return number of accepted requests per key, with keys identified by a prefix of their SHA-256 digest
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        requests.forEach((id, count) -> counts.put(id, count.sum()));
+        return counts;
+    }
+
+    void reload() {
+        try (InputStream is = Files.newInputStream(path)) {
+            Set<String> loaded = digest(readLines(is));
+            if (loaded.isEmpty() && !digests.isEmpty()) {
+                // most likely caught half way through being rewritten, we'll reload once it has been
+                logger.error("No API keys in {}, keeping the {} keys loaded before", path, digests.size());
+                return;
+            }
+
+            digests = loaded;
+            logger.info("Loaded {} API keys from {}", digests.size(), path);
+        } catch (NoSuchFileException e) {
+            if (digests.isEmpty()) {
+                logger.info("No API Key set for API");
+            } else {
+                // e.g. an editor that renames the old file away before writing the new one
+                logger.error("API key file {} is missing, keeping the {} keys loaded before", path, digests.size());
+            }
+        } catch (IOException e) {
+            // keep the keys we have rather than locking everyone out, or letting everyone in
+            logger.error("Failed to reload API keys from " + path, e);
+        }
+    }
+
+    private void watch() {
+        Path dir = path.toAbsolutePath().getParent();
+        try {
+            watcher = dir.getFileSystem().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.warn("Can't watch " + path + " for changes, API keys will only be loaded once", e);
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event: key.pollEvents()) {
+                        if (path.getFileName().equals(event.context())) changed = true;
+                    }
+
+                    if (changed) reload();
+                    if (!key.reset()) return;
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // closed
+            }
+        }, "api-key-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+
+    private static Set<String> digest(List<String> keys) {
+        Set<String> digests = new HashSet<>();
+        for (String key: keys) {
+            if (key.isEmpty()) continue;
+
+            digests.add(sha256Hex(key));
+        }
+
+        return Collections.unmodifiableSet(digests);
+    }
+
+    private static List<String> readLines(InputStream is) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<>();
+        for (String line; (line = reader.readLine()) != null;) {
+            lines.add(line.trim());
+        }
+
+        return lines;
+    }
+
+    /**
+     * @return lower case hex SHA-256 of the UTF-8 value, as SharedItemSchemaV2.hashLink computes for links
+     */
+    private static String sha256Hex(String value) {
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+    }
+}
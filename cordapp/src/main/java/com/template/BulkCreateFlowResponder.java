@@ -0,0 +1,14 @@
+package com.template;
+
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.InitiatedBy;
+
+/**
+ * Signs bulk Create transactions after the same checks as CreateFlowResponder, applied to every output.
+ */
+@InitiatedBy(SharedItemBulkCreateFlow.class)
+public class BulkCreateFlowResponder extends CreateFlowResponder {
+    public BulkCreateFlowResponder(FlowSession otherPartySession) {
+        super(otherPartySession);
+    }
+}
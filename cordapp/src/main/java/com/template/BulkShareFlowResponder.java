@@ -0,0 +1,104 @@
+package com.template;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Receives batches of transactions from SharedItemBulkShareFlow and records them with all their visible states,
+ * like ShareFlowResponder does for one.
+ *
+ * Each transaction is received with ReceiveTransactionFlow, which resolves its dependencies against what this node
+ * already has, so a dependency shared by many transactions is fetched once. Verified transactions are recorded
+ * together, and only recorded early when the sender says the next transaction spends from one of them.
+ */
+@InitiatedBy(SharedItemBulkShareFlow.class)
+public class BulkShareFlowResponder extends FlowLogic<Void> {
+    private final FlowSession senderSession;
+
+    public BulkShareFlowResponder(final FlowSession senderSession) {
+        this.senderSession = senderSession;
+    }
+
+    @Suspendable
+    @Override
+    public Void call() throws FlowException {
+        while (true) {
+            List<SecureHash> batch = senderSession.receive(List.class).unwrap(ids -> {
+                List<SecureHash> checked = new ArrayList<>(ids.size());
+                for (Object id: ids) {
+                    if (!(id instanceof SecureHash)) throw new FlowException("Expected transaction ids");
+                    checked.add((SecureHash) id);
+                }
+
+                return checked;
+            });
+
+            // an empty batch ends the share
+            if (batch.isEmpty()) return null;
+
+            List<SecureHash> missing = new ArrayList<>();
+            for (SecureHash id: batch) {
+                if (getServiceHub().getValidatedTransactions().getTransaction(id) == null) missing.add(id);
+            }
+
+            senderSession.send(missing);
+            if (missing.isEmpty()) continue;
+
+            // positions in the batch of transactions that spend from one sent before them
+            Set<Integer> recordBefore = senderSession.receive(List.class).unwrap(positions -> {
+                Set<Integer> checked = new HashSet<>();
+                for (Object position: positions) {
+                    if (!(position instanceof Integer)) throw new FlowException("Expected transaction positions");
+                    checked.add((Integer) position);
+                }
+
+                return checked;
+            });
+
+            senderSession.send(receive(missing, recordBefore));
+        }
+    }
+
+    @Suspendable
+    private int receive(List<SecureHash> missing, Set<Integer> recordBefore) throws FlowException {
+        List<SignedTransaction> pending = new ArrayList<>();
+        Set<SecureHash> received = new HashSet<>();
+        int recorded = 0;
+        for (int i = 0; i < missing.size(); i++) {
+            // otherwise resolving the next transaction would fetch the one it spends from as a dependency
+            if (recordBefore.contains(i)) recorded += flush(pending);
+
+            // resolves and verifies the transaction without recording it
+            SignedTransaction tx = subFlow(new ReceiveTransactionFlow(senderSession, false));
+            if (!missing.contains(tx.getId()) || !received.add(tx.getId())) {
+                throw new FlowException("Received a transaction that wasn't asked for");
+            }
+
+            try {
+                tx.verifyRequiredSignatures();
+            } catch (SignatureException e) {
+                throw new FlowException("Transaction " + tx.getId() + " is missing signatures", e);
+            }
+
+            pending.add(tx);
+        }
+
+        return recorded + flush(pending);
+    }
+
+    private int flush(List<SignedTransaction> pending) {
+        int count = pending.size();
+        if (count > 0) getServiceHub().recordTransactions(StatesToRecord.ALL_VISIBLE, pending);
+        pending.clear();
+        return count;
+    }
+}
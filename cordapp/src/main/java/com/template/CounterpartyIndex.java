@@ -0,0 +1,236 @@
+package com.template;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import java.util.*;
+
+/**
+ * Materialised set of the parties that share or have been shared unconsumed items, with per-party item counts.
+ *
+ * It is seeded with the counts of every party, from grouped queries, then kept up to date from vault updates: each
+ * produced state adds one to the count of its 'from' and 'to', and each consumed state takes one away. Parties are
+ * dropped when their count reaches zero. Reads therefore only copy what is held, however many items there are.
+ *
+ * A party touched by an update while the index is being seeded may or may not be counted in the seed, so it is
+ * marked stale instead, and counted with two counts the next time the index is read.
+ *
+ * If the vault feed fails, the index is reseeded from a new feed on the next read. Until that succeeds, every
+ * read counts every party afresh, without keeping the counts.
+ */
+public class CounterpartyIndex {
+    private static final Logger logger = LoggerFactory.getLogger(CounterpartyIndex.class);
+
+    private final SharedItemReader reader;
+    private final PartyCache partyCache;
+    // by X.500 name; a missing count means stale
+    private final Map<String, Party> parties = new TreeMap<>();
+    private final Map<String, Long> counts = new HashMap<>();
+    // bumped whenever a stale party is touched, so a count computed while it changed isn't kept
+    private final Map<String, Long> versions = new HashMap<>();
+    // parties touched while seeding, or null when not seeding
+    private Map<String, Party> touchedWhileSeeding;
+    // bumped on every (re)subscription, which invalidates every count
+    private long epoch;
+    private final Object subscribeLock = new Object();
+    private Subscription feed;
+    private volatile boolean tracking;
+
+    public CounterpartyIndex(SharedItemReader reader, PartyCache partyCache) {
+        this.reader = reader;
+        this.partyCache = partyCache;
+        subscribe();
+    }
+
+    private void subscribe() {
+        // Subscribe before seeding, so parties changed while seeding are known to be stale.
+        synchronized (this) {
+            touchedWhileSeeding = new HashMap<>();
+        }
+
+        // a feed left over from a failed seeding would count every update twice
+        if (feed != null) feed.unsubscribe();
+
+        tracking = true;
+        try {
+            feed = reader.getUpdates().subscribe(this::apply, error -> {
+                logger.error("Vault feed failed, counterparties will be reseeded on the next read", error);
+                tracking = false;
+            });
+
+            Map<String, Party> seeded = new TreeMap<>();
+            Map<String, Long> seededCounts = new HashMap<>();
+            reader.countByParty().forEach((name, count) -> {
+                Party party = resolve(name);
+                if (party != null && count > 0) {
+                    seeded.put(name, party);
+                    seededCounts.put(name, count);
+                }
+            });
+
+            synchronized (this) {
+                parties.clear();
+                counts.clear();
+                versions.clear();
+                epoch++;
+                parties.putAll(seeded);
+                counts.putAll(seededCounts);
+                touchedWhileSeeding.forEach(this::markStale);
+            }
+        } finally {
+            synchronized (this) {
+                touchedWhileSeeding = null;
+            }
+        }
+    }
+
+    private void resubscribe() {
+        // not this, which vault updates wait on, as seeding makes RPC calls
+        synchronized (subscribeLock) {
+            if (tracking) return;
+
+            try {
+                subscribe();
+                logger.info("Resubscribed to the vault feed, counterparty counts are kept again");
+            } catch (RuntimeException e) {
+                tracking = false;
+                logger.warn("Failed to resubscribe to the vault feed", e);
+            }
+        }
+    }
+
+    private synchronized void apply(Vault.Update<SharedItemState> update) {
+        update.getProduced().forEach(stateAndRef -> add(stateAndRef, 1));
+        update.getConsumed().forEach(stateAndRef -> add(stateAndRef, -1));
+    }
+
+    private void add(StateAndRef<SharedItemState> stateAndRef, long delta) {
+        SharedItemState state = stateAndRef.getState().getData();
+        add(state.getFrom(), delta);
+        if (state.getTo() != null) add(state.getTo(), delta);
+    }
+
+    private void add(Party party, long delta) {
+        String name = party.getName().toString();
+        if (touchedWhileSeeding != null) {
+            touchedWhileSeeding.put(name, party);
+            return;
+        }
+
+        Long count = counts.get(name);
+        if (count == null && parties.containsKey(name)) {
+            markStale(name, party);
+            return;
+        }
+
+        // a party that isn't known has no items yet
+        long updated = (count == null ? 0 : count) + delta;
+        if (updated > 0) {
+            parties.put(name, party);
+            counts.put(name, updated);
+        } else if (updated == 0) {
+            parties.remove(name);
+            counts.remove(name);
+        } else {
+            logger.warn("Counted {} items for {}, recounting", updated, name);
+            markStale(name, party);
+        }
+    }
+
+    private void markStale(String name, Party party) {
+        parties.put(name, party);
+        counts.remove(name);
+        versions.merge(name, 1L, Long::sum);
+    }
+
+    private Party resolve(String name) {
+        Party party = partyCache.wellKnownPartyFromX500Name(CordaX500Name.parse(name));
+        return party != null ? party : reader.findParty(name);
+    }
+
+    private long count(Party party) {
+        CordaX500Name name = party.getName();
+        return reader.count(new SharedItemFilter().setFrom(name)) + reader.count(new SharedItemFilter().setTo(name));
+    }
+
+    /**
+     * @return parties with unconsumed items, sorted by name
+     */
+    public List<Party> getParties() {
+        if (!tracking) resubscribe();
+
+        synchronized (this) {
+            if (tracking && counts.size() == parties.size()) return new ArrayList<>(parties.values());
+        }
+
+        // some parties are stale, or aren't tracked
+        List<Party> result = new ArrayList<>();
+        getCounts().forEach(count -> result.add(count.getParty()));
+        return result;
+    }
+
+    /**
+     * @return parties with unconsumed items and their item counts, sorted by name
+     */
+    public List<PartyCount> getCounts() {
+        if (!tracking) resubscribe();
+        if (!tracking) return countAll();
+
+        Map<String, Party> current;
+        Map<String, Long> known;
+        Map<String, Long> seen;
+        long seenEpoch;
+        synchronized (this) {
+            seenEpoch = epoch;
+            current = new TreeMap<>(parties);
+            known = new HashMap<>(counts);
+            seen = new HashMap<>(versions);
+        }
+
+        // stale counts are computed without holding the lock, so vault updates aren't held up by them
+        Map<String, Long> computed = new HashMap<>();
+        current.forEach((name, party) -> {
+            if (!known.containsKey(name)) computed.put(name, count(party));
+        });
+
+        synchronized (this) {
+            computed.forEach((name, count) -> {
+                // only keep counts of parties that are still stale and weren't touched while being counted
+                if (epoch != seenEpoch || counts.containsKey(name) || !Objects.equals(versions.get(name), seen.get(name))) return;
+
+                versions.remove(name);
+                if (count == 0) {
+                    parties.remove(name);
+                } else {
+                    counts.put(name, count);
+                }
+            });
+        }
+
+        List<PartyCount> result = new ArrayList<>();
+        current.forEach((name, party) -> {
+            long count = known.containsKey(name) ? known.get(name) : computed.get(name);
+            if (count > 0) result.add(new PartyCount(party, count));
+        });
+
+        return result;
+    }
+
+    /**
+     * @return every party's count, from grouped queries, for when the vault feed can't be followed
+     */
+    private List<PartyCount> countAll() {
+        List<PartyCount> result = new ArrayList<>();
+        new TreeMap<>(reader.countByParty()).forEach((name, count) -> {
+            Party party = resolve(name);
+            if (party != null && count > 0) result.add(new PartyCount(party, count));
+        });
+
+        return result;
+    }
+}
@@ -8,11 +8,15 @@ import net.corda.core.identity.Party;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.ProgressTracker;
 
+import java.time.Duration;
+import java.util.List;
+
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
 // Define IOUFlowResponder:
 @InitiatedBy(SharedItemCreateFlow.class)
 public class CreateFlowResponder extends FlowLogic<SignedTransaction> {
+    public static Duration MAX_CLOCK_SKEW = Duration.ofSeconds(30);
     private final FlowSession otherPartySession;
     private static final ProgressTracker.Step PARSE_TX = new ProgressTracker.Step("Parse state from tx.");
     private static final ProgressTracker.Step VALIDATE = new ProgressTracker.Step("Validate outputs.");
@@ -40,14 +44,27 @@ public class CreateFlowResponder extends FlowLogic<SignedTransaction> {
             protected void checkTransaction(SignedTransaction stx) {
                 requireThat(require -> {
                     progressTracker.setCurrentStep(PARSE_TX);
-                    ContractState output = stx.getTx().getOutputs().get(0).getData();
+                    List<ContractState> outputs = stx.getTx().getOutputStates();
 
                     progressTracker.setCurrentStep(VALIDATE);
-                    require.using("This must be a SharedSpace transaction.", output instanceof SharedItemState);
-                    SharedItemState sss = (SharedItemState) output;
+                    boolean notarised = stx.getTx().getTimeWindow() != null;
+                    long now = getServiceHub().getClock().millis();
+                    for (ContractState output: outputs) {
+                        require.using("This must be a SharedSpace transaction.", output instanceof SharedItemState);
+                        if (!notarised) {
+                            // Without a time window nobody else checks the timestamp, so we attest to it by signing.
+                            long timestamp = ((SharedItemState) output).getTimestamp();
+                            require.using(
+                                    String.format("timestamp %d should be within %s of our clock", timestamp, MAX_CLOCK_SKEW),
+                                    Math.abs(now - timestamp) <= MAX_CLOCK_SKEW.toMillis());
+                        }
+                    }
 
                     progressTracker.setCurrentStep(CHECK_LINKED_DATA);
-                    ensureReceivedObjectCorrespondingToLink(sss.getFrom(), sss.getLink());
+                    for (ContractState output: outputs) {
+                        SharedItemState sss = (SharedItemState) output;
+                        ensureReceivedObjectCorrespondingToLink(sss.getFrom(), sss.getLink());
+                    }
 
                     return null;
                 });
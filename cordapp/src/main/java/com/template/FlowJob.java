@@ -0,0 +1,42 @@
+package com.template;
+
+/**
+ * Status of a flow started asynchronously through the web API, reported by /api/share/jobs/{id}.
+ */
+public class FlowJob {
+    public enum Status { RUNNING, SUCCEEDED, FAILED }
+
+    private final String id;
+    private final String flow;
+    private final long startedAt;
+    private volatile Status status = Status.RUNNING;
+    private volatile Object result;
+    private volatile String error;
+    private volatile Long finishedAt;
+
+    public FlowJob(String id, String flow, long startedAt) {
+        this.id = id;
+        this.flow = flow;
+        this.startedAt = startedAt;
+    }
+
+    public String getId() { return id; }
+    public String getFlow() { return flow; }
+    public long getStartedAt() { return startedAt; }
+    public Status getStatus() { return status; }
+    public Object getResult() { return result; }
+    public String getError() { return error; }
+    public Long getFinishedAt() { return finishedAt; }
+
+    void succeed(Object result, long finishedAt) {
+        this.result = result;
+        this.finishedAt = finishedAt;
+        this.status = Status.SUCCEEDED;
+    }
+
+    void fail(String error, long finishedAt) {
+        this.error = error;
+        this.finishedAt = finishedAt;
+        this.status = Status.FAILED;
+    }
+}
@@ -0,0 +1,55 @@
+package com.template;
+
+import net.corda.core.messaging.FlowHandle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Keeps track of flows started asynchronously through the web API, so their outcome can be polled.
+ * Only the most recent MAX_JOBS jobs are kept.
+ */
+public class FlowJobRegistry {
+    public static int MAX_JOBS = 10000;
+
+    private final Map<String, FlowJob> jobs = new LinkedHashMap<String, FlowJob>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FlowJob> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    /**
+     * @param handle a flow that has just been started
+     * @param toResult converts the flow's return value into what the job reports as its result
+     * @return the job, which is updated when the flow completes
+     */
+    public <T> FlowJob register(FlowHandle<T> handle, String flow, Function<T, ?> toResult) {
+        final FlowJob job = new FlowJob(handle.getId().getUuid().toString(), flow, System.currentTimeMillis());
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+
+        handle.getReturnValue().then(future -> {
+            try {
+                job.succeed(toResult.apply(future.get()), System.currentTimeMillis());
+            } catch (ExecutionException e) {
+                job.fail(e.getCause().getMessage(), System.currentTimeMillis());
+            } catch (Throwable t) {
+                job.fail(t.getMessage(), System.currentTimeMillis());
+            }
+
+            return null;
+        });
+
+        return job;
+    }
+
+    public FlowJob get(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+}
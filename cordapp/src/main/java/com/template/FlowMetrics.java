@@ -0,0 +1,149 @@
+package com.template;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.messaging.FlowProgressHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long flows started through the web API spend in each of their ProgressTracker steps.
+ *
+ * A step's latency is the time between its label and the next label appearing on the flow's progress feed.
+ * The whole flow's latency is recorded under TOTAL, or under FAILED without any step latencies if the flow failed.
+ *
+ * Latencies are recorded in Dropwizard Timers, registered in the given MetricRegistry as "flows.<flow>.<step>", so
+ * they can also be sent to any Dropwizard reporter.
+ */
+public class FlowMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(FlowMetrics.class);
+    public static final String TOTAL = "total";
+    public static final String FAILED = "failed";
+
+    private final MetricRegistry registry;
+    // the registry's timers by flow and step, as step labels may contain the registry's name separator
+    private final ConcurrentMap<String, ConcurrentMap<String, Timer>> timers = new ConcurrentHashMap<>();
+
+    public FlowMetrics() {
+        this(new MetricRegistry());
+    }
+
+    public FlowMetrics(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts recording step latencies for a flow that has just been started.
+     */
+    public void track(Class<?> flowClass, FlowProgressHandle<?> flowHandle) {
+        track(flowClass.getSimpleName(), flowHandle.getProgress(), flowHandle.getReturnValue());
+    }
+
+    void track(String flow, Observable<String> progress, CordaFuture<?> returnValue) {
+        final StepTimer timer = new StepTimer(flow);
+        progress.subscribe(step -> {
+            logger.debug(">> {} {}", flow, step);
+            timer.next(step);
+        }, error -> {
+            // the flow's result still arrives through its return value, but we have missed some of its steps
+            logger.warn("Lost the progress feed of a {} flow, its step latencies will not be recorded", flow, error);
+            timer.discardSteps();
+        });
+        returnValue.then(future -> {
+            try {
+                future.get();
+                timer.finish();
+            } catch (Exception e) {
+                // a failed flow stops at an arbitrary step, so only count it
+                logger.debug("{} flow failed", flow, e);
+                timer.fail();
+            }
+
+            return null;
+        });
+    }
+
+    public void record(String flow, String step, long millis) {
+        timers
+                .computeIfAbsent(flow, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(step, key -> registry.timer(MetricRegistry.name("flows", flow, step)))
+                .update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return latency snapshots by flow, then by step
+     */
+    public Map<String, Map<String, LatencySnapshot>> snapshot() {
+        Map<String, Map<String, LatencySnapshot>> snapshot = new TreeMap<>();
+        timers.forEach((flow, steps) -> {
+            Map<String, LatencySnapshot> stepSnapshots = new TreeMap<>();
+            steps.forEach((step, timer) -> stepSnapshots.put(step, LatencySnapshot.of(timer)));
+            snapshot.put(flow, stepSnapshots);
+        });
+
+        return snapshot;
+    }
+
+    /**
+     * Buffers a flow's step latencies until it finishes, so a flow that fails or loses its progress feed part way
+     * doesn't leave only some of its steps recorded.
+     */
+    private class StepTimer {
+        private final String flow;
+        private final long startedAt = System.currentTimeMillis();
+        private final Map<String, Long> steps = new LinkedHashMap<>();
+        private String step;
+        private long stepStartedAt = startedAt;
+        private boolean finished;
+        private boolean complete = true;
+
+        private StepTimer(String flow) {
+            this.flow = flow;
+        }
+
+        synchronized void next(String nextStep) {
+            if (finished) return;
+
+            long now = System.currentTimeMillis();
+            if (step != null) {
+                // a step that is entered more than once is recorded once, for its total time
+                steps.merge(step, now - stepStartedAt, Long::sum);
+            }
+
+            step = nextStep;
+            stepStartedAt = now;
+        }
+
+        synchronized void discardSteps() {
+            complete = false;
+        }
+
+        synchronized void finish() {
+            if (finished) return;
+
+            next(null);
+            if (complete) {
+                steps.forEach((name, millis) -> record(flow, name, millis));
+            }
+
+            record(flow, TOTAL, System.currentTimeMillis() - startedAt);
+            finished = true;
+        }
+
+        synchronized void fail() {
+            if (finished) return;
+
+            record(flow, FAILED, System.currentTimeMillis() - startedAt);
+            finished = true;
+        }
+    }
+}
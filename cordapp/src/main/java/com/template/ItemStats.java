@@ -0,0 +1,29 @@
+package com.template;
+
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * Number of items in a group, and the range of their timestamps.
+ */
+@CordaSerializable
+public class ItemStats {
+    private final String group;
+    private final long count;
+    private final Long firstTimestamp;
+    private final Long lastTimestamp;
+
+    /**
+     * @param group value of the column grouped by, or null for items without one, or for all items if not grouped
+     */
+    public ItemStats(String group, long count, Long firstTimestamp, Long lastTimestamp) {
+        this.group = group;
+        this.count = count;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public String getGroup() { return group; }
+    public long getCount() { return count; }
+    public Long getFirstTimestamp() { return firstTimestamp; }
+    public Long getLastTimestamp() { return lastTimestamp; }
+}
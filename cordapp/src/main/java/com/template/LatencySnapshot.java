@@ -0,0 +1,52 @@
+package com.template;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time view of a Dropwizard Timer, in milliseconds, as reported by the metrics endpoints. The count covers
+ * every recorded latency, while the percentiles come from the timer's reservoir, which favours the last few minutes.
+ */
+public class LatencySnapshot {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    public LatencySnapshot(long count, double mean, long p50, long p90, long p99, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public static LatencySnapshot of(Timer timer) {
+        Snapshot snapshot = timer.getSnapshot();
+        return new LatencySnapshot(
+                timer.getCount(),
+                snapshot.getMean() / NANOS_PER_MILLI,
+                millis(snapshot.getMedian()),
+                millis(snapshot.getValue(0.9)),
+                millis(snapshot.get99thPercentile()),
+                millis(snapshot.getMax()));
+    }
+
+    private static long millis(double nanos) {
+        return Math.round(nanos / NANOS_PER_MILLI);
+    }
+
+    public long getCount() { return count; }
+    public double getMean() { return mean; }
+    public long getP50() { return p50; }
+    public long getP90() { return p90; }
+    public long getP99() { return p99; }
+    public long getMax() { return max; }
+}
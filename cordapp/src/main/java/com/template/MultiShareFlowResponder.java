@@ -0,0 +1,25 @@
+package com.template;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.*;
+import net.corda.core.node.StatesToRecord;
+
+/**
+ * Records a transaction shared by SharedItemMultiShareFlow, like ShareFlowResponder, then tells the sender it has.
+ */
+@InitiatedBy(SharedItemMultiShareFlow.class)
+public class MultiShareFlowResponder extends FlowLogic<Void> {
+    private final FlowSession senderSession;
+
+    public MultiShareFlowResponder(final FlowSession senderSession) {
+        this.senderSession = senderSession;
+    }
+
+    @Suspendable
+    @Override
+    public Void call() throws FlowException {
+        subFlow(new ReceiveTransactionFlow(senderSession, true, StatesToRecord.ALL_VISIBLE));
+        senderSession.send(true);
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package com.template;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Bounded cache of well-known parties by X.500 name, so resolving a party in the web layer doesn't cost an RPC
+ * round trip per request.
+ *
+ * It is filled from the network map snapshot up front, and entries are replaced or dropped as nodes are added to,
+ * changed in or removed from the network map. If the network map feed fails, the cache can no longer be trusted:
+ * parties are looked up over RPC until the feed has been resubscribed, which is retried at most every
+ * RESUBSCRIBE_INTERVAL_MILLIS.
+ */
+public class PartyCache {
+    private static final Logger logger = LoggerFactory.getLogger(PartyCache.class);
+    public static int MAX_SIZE = 10000;
+    public static long RESUBSCRIBE_INTERVAL_MILLIS = 10000;
+
+    private final CordaRPCOps rpcOps;
+    private final Cache<CordaX500Name, Party> parties = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+    // whether the network map feed keeps the cache up to date
+    private volatile boolean tracking;
+    private volatile long subscribedAt;
+
+    public PartyCache(CordaRPCOps rpcOps) {
+        this.rpcOps = rpcOps;
+        subscribe();
+    }
+
+    private synchronized void subscribe() {
+        if (tracking) return;
+
+        subscribedAt = System.currentTimeMillis();
+        DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> feed = rpcOps.networkMapFeed();
+        parties.invalidateAll();
+        feed.getSnapshot().forEach(this::put);
+        tracking = true;
+        feed.getUpdates().subscribe(this::update, error -> {
+            logger.error("Network map feed failed, parties will be looked up over RPC until it is resubscribed", error);
+            tracking = false;
+            parties.invalidateAll();
+        });
+    }
+
+    private void resubscribeIfDue() {
+        if (System.currentTimeMillis() - subscribedAt < RESUBSCRIBE_INTERVAL_MILLIS) return;
+
+        try {
+            subscribe();
+            logger.info("Resubscribed to the network map feed");
+        } catch (RuntimeException e) {
+            logger.warn("Failed to resubscribe to the network map feed", e);
+        }
+    }
+
+    private void update(NetworkMapCache.MapChange change) {
+        change.getNode().getLegalIdentities().forEach(party -> parties.invalidate(party.getName()));
+        if (change instanceof NetworkMapCache.MapChange.Modified) {
+            // identities the node no longer has
+            ((NetworkMapCache.MapChange.Modified) change).getPreviousNode().getLegalIdentities()
+                    .forEach(party -> parties.invalidate(party.getName()));
+        }
+
+        if (!(change instanceof NetworkMapCache.MapChange.Removed)) {
+            put(change.getNode());
+        }
+    }
+
+    private void put(NodeInfo node) {
+        node.getLegalIdentities().forEach(party -> parties.put(party.getName(), party));
+    }
+
+    /**
+     * @return the well-known party with this name, or null if there is none
+     */
+    public Party wellKnownPartyFromX500Name(CordaX500Name name) {
+        if (!tracking) resubscribeIfDue();
+
+        if (tracking) {
+            Party party = parties.getIfPresent(name);
+            if (party != null) return party;
+        }
+
+        Party party = rpcOps.wellKnownPartyFromX500Name(name);
+        if (party != null && tracking) {
+            parties.put(name, party);
+        }
+
+        return party;
+    }
+}
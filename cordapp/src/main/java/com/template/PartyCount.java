@@ -0,0 +1,19 @@
+package com.template;
+
+import net.corda.core.identity.Party;
+
+/**
+ * A party and the number of unconsumed items it shares or has been shared.
+ */
+public class PartyCount {
+    private final Party party;
+    private final long count;
+
+    public PartyCount(Party party, long count) {
+        this.party = party;
+        this.count = count;
+    }
+
+    public Party getParty() { return party; }
+    public long getCount() { return count; }
+}
@@ -0,0 +1,127 @@
+package com.template;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs each distinct query once at a time: callers asking for a query that is already running wait for its result
+ * instead of running it again. Optionally, results are also kept for a short time.
+ *
+ * Queries are keyed by the generation they started in as well as by their key, and invalidate() starts a new
+ * generation. Once the vault changes and invalidate() is called, callers neither join queries started before the
+ * change nor see their cached results.
+ */
+class QueryCoalescer {
+    private static final int MAX_CACHED = 10000;
+
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentMap<List<Object>, CompletableFuture<Object>> running = new ConcurrentHashMap<>();
+    private volatile Cache<List<Object>, Object> cache;
+    private volatile boolean sharing = true;
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    /**
+     * @param ttl how long to keep results, or null to only share results between concurrent callers
+     */
+    QueryCoalescer(Duration ttl) {
+        if (ttl != null && !ttl.isZero()) {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumSize(MAX_CACHED)
+                    .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
+    /**
+     * @return a coalescer that runs every query, for callers that don't observe vault changes
+     */
+    static QueryCoalescer disabled() {
+        QueryCoalescer coalescer = new QueryCoalescer(null);
+        coalescer.sharing = false;
+        return coalescer;
+    }
+
+    /**
+     * @param key identifies the query, so must have value equality and not change
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(Object key, Supplier<T> query) {
+        if (!sharing) {
+            queries.increment();
+            return query.get();
+        }
+
+        List<Object> generationKey = Arrays.asList(generation.get(), key);
+        Cache<List<Object>, Object> current = cache;
+        if (current != null) {
+            Object cached = current.getIfPresent(generationKey);
+            if (cached != null) {
+                cacheHits.increment();
+                return (T) cached;
+            }
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = running.putIfAbsent(generationKey, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw e;
+            }
+        }
+
+        queries.increment();
+        try {
+            T result = query.get();
+            if (current != null && result != null) current.put(generationKey, result);
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // whatever the query throws, callers waiting on it must not be left hanging
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(generationKey, future);
+        }
+    }
+
+    /**
+     * Called when the vault changes, so results from before the change are no longer shared.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        Cache<List<Object>, Object> current = cache;
+        if (current != null) current.invalidateAll();
+    }
+
+    /**
+     * Runs every query from now on, e.g. when vault changes can no longer be observed.
+     */
+    void stopSharing() {
+        sharing = false;
+        cache = null;
+        invalidate();
+    }
+
+    long getQueries() { return queries.sum(); }
+    long getCoalesced() { return coalesced.sum(); }
+    long getCacheHits() { return cacheHits.sum(); }
+}
@@ -0,0 +1,29 @@
+package com.template;
+
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * Outcome of resolving a tmpId: how many items and transactions it took, and the last transaction recorded.
+ * The transactions themselves are not kept, so the flow's checkpoints don't grow with the backlog.
+ */
+@CordaSerializable
+public class ResolveResult {
+    private final long resolved;
+    private final int transactions;
+    private final SecureHash lastTxId;
+
+    public ResolveResult(long resolved, int transactions, SecureHash lastTxId) {
+        this.resolved = resolved;
+        this.transactions = transactions;
+        this.lastTxId = lastTxId;
+    }
+
+    public long getResolved() { return resolved; }
+    public int getTransactions() { return transactions; }
+
+    /**
+     * @return id of the last transaction recorded, or null if there was nothing to resolve
+     */
+    public SecureHash getLastTxId() { return lastTxId; }
+}
@@ -2,12 +2,13 @@ package com.template;
 
 // Add these imports:
 import com.google.common.collect.ImmutableList;
-import com.template.schema.SharedItemSchemaV1;
 import net.corda.core.contracts.StateAndContract;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
 import net.corda.core.flows.*;
 import co.paralleluniverse.fibers.Suspendable;
 import net.corda.core.contracts.Command;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.identity.Party;
 import net.corda.core.node.services.Vault;
 import net.corda.core.node.services.vault.*;
@@ -20,19 +21,22 @@ import net.corda.core.utilities.ProgressTracker.Step;
 
 import static com.template.SharedItemContract.SHARED_SPACE_CONTRACT_ID;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @InitiatingFlow
 @StartableByRPC
-public class ResolveToIdentityFlow extends FlowLogic<List<SignedTransaction>> {
+public class ResolveToIdentityFlow extends FlowLogic<ResolveResult> {
     public static int PAGE_SIZE = 200;
+    public static int MAX_BATCH_SIZE = PAGE_SIZE;
     private final Party party;
     private final String tmpId;
+    private final int batchSize;
     private static final Step ID_OTHER_NODES = new Step("Identifying other nodes on the network.");
     private static final Step QUERY_VAULT = new Step("Querying vault for items with unresolved 'to'.");
-    private static final Step RESOLVE_TO = new Step("Creating transactions per 'to' party resolved.");
+    private static final Step RESOLVE_TO = new Step("Creating transactions per batch of 'to' parties resolved.");
     private static final Step TX_BUILDING = new Step("Building a transaction.");
     private static final Step TX_VERIFICATION = new Step("Verifying a transaction.");
     private static final Step TX_SIGNING = new Step("Signing a transaction.");
@@ -56,8 +60,25 @@ public class ResolveToIdentityFlow extends FlowLogic<List<SignedTransaction>> {
     );
 
     public ResolveToIdentityFlow(String tmpId, Party party) {
+        this(tmpId, party, 1);
+    }
+
+    /**
+     * @param batchSize number of items to resolve per transaction, between 1 and MAX_BATCH_SIZE.
+     *                  Each transaction is notarised once, regardless of how many items it resolves.
+     */
+    public ResolveToIdentityFlow(String tmpId, Party party, int batchSize) {
+        if (tmpId == null) {
+            throw new IllegalArgumentException("tmpId must be provided");
+        }
+
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format("batch size must be between 1 and %d, got %d", MAX_BATCH_SIZE, batchSize));
+        }
+
         this.party = party;
         this.tmpId = tmpId;
+        this.batchSize = batchSize;
     }
 
     @Override
@@ -66,11 +87,14 @@ public class ResolveToIdentityFlow extends FlowLogic<List<SignedTransaction>> {
     }
 
     /**
-     * The flow logic is encapsulated within the call() method.
+     * Resolves every unconsumed item shared with tmpId, one page of PAGE_SIZE states at a time, so memory use is
+     * bounded by the page size rather than by the backlog. Each batch is finalised before the next one is built,
+     * so if the flow is interrupted, running it again picks up the items that are still unresolved.
+     * Only counts and the last transaction's id are kept across batches, so checkpoints don't grow with the backlog.
      */
     @Suspendable
     @Override
-    public List<SignedTransaction> call() throws FlowException {
+    public ResolveResult call() throws FlowException {
         progressTracker.setCurrentStep(ID_OTHER_NODES);
 
         // We retrieve the notary identity from the network map.
@@ -78,46 +102,72 @@ public class ResolveToIdentityFlow extends FlowLogic<List<SignedTransaction>> {
 
         progressTracker.setCurrentStep(QUERY_VAULT);
 
-        Field toField;
-        try {
-            toField = SharedItemSchemaV1.PersistentSharedItem.class.getDeclaredField("to");
-        } catch (NoSuchFieldException f) {
-            throw new FlowException("expected schema to have field 'to'", f);
-        }
-
-        CriteriaExpression tmpIdCriteria = Builder.isNull(toField);
-//        QueryCriteria criteria = new VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
-        QueryCriteria criteria = new VaultQueryCriteria(Vault.StateStatus.UNCONSUMED)
-                .and(new VaultCustomQueryCriteria(tmpIdCriteria));
-
-        Vault.Page<SharedItemState> results = getServiceHub()
-                .getVaultService()
-                .queryBy(SharedItemState.class, criteria, new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, PAGE_SIZE));
-
-        List<SignedTransaction> result = new ArrayList<>();
+        QueryCriteria criteria = new SharedItemFilter()
+                .setUnresolved(true)
+                .setToTmpId(tmpId)
+                .toCriteria();
+
+        // Resolved states are consumed, so the first page always holds the next states to resolve.
+        PageSpecification firstPage = new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, PAGE_SIZE);
+        Set<StateRef> previousPage = new HashSet<>();
+        long resolved = 0;
+        int transactions = 0;
+        SecureHash lastTxId = null;
         progressTracker.setCurrentStep(RESOLVE_TO);
-        for (StateAndRef<SharedItemState> stateAndRef: results.getStates()) {
-            SignedTransaction signedTx = setTo(stateAndRef, party, notary);
-            result.add(signedTx);
+        while (true) {
+            Vault.Page<SharedItemState> results = getServiceHub()
+                    .getVaultService()
+                    .queryBy(SharedItemState.class, criteria, firstPage);
+
+            List<StateAndRef<SharedItemState>> states = new ArrayList<>(results.getStates());
+            if (states.isEmpty()) break;
+
+            Set<StateRef> page = new HashSet<>();
+            for (StateAndRef<SharedItemState> stateAndRef: states) {
+                if (previousPage.contains(stateAndRef.getRef())) {
+                    throw new FlowException(String.format("state %s was not consumed after being resolved", stateAndRef.getRef()));
+                }
+
+                page.add(stateAndRef.getRef());
+            }
+
+            long remaining = results.getTotalStatesAvailable();
+            for (int i = 0; i < states.size(); i += batchSize) {
+                List<StateAndRef<SharedItemState>> batch = new ArrayList<>(states.subList(i, Math.min(i + batchSize, states.size())));
+                lastTxId = setTo(batch, party, notary).getId();
+                transactions++;
+                resolved += batch.size();
+                remaining -= batch.size();
+                getLogger().info("Resolved {} items for tmpId {}, {} remaining", resolved, tmpId, remaining);
+            }
+
+            previousPage = page;
         }
 
-        return result;
+        return new ResolveResult(resolved, transactions, lastTxId);
     }
 
+    /**
+     * Resolves 'to' for all the given states in a single transaction, with the i-th output replacing the i-th input.
+     */
     @Suspendable
-    private SignedTransaction setTo(StateAndRef<SharedItemState> stateAndRef, Party to, Party notary) throws FlowException {
+    private SignedTransaction setTo(List<StateAndRef<SharedItemState>> stateAndRefs, Party to, Party notary) throws FlowException {
 //        final TimeWindow window = TimeWindow.withTolerance(getServiceHub().getClock().instant(), Duration.ofSeconds(30));
-        SharedItemState inputState = stateAndRef.getState().getData();
         Command cmd = new Command<>(new SharedItemContract.ResolveTo(), ImmutableList.of(getOurIdentity().getOwningKey()));
-        SharedItemState outputState = new SharedItemState(inputState.getFrom(), to, inputState.getToTmpId(), inputState.getLink(), inputState.getTimestamp());
-        StateAndContract outputContractAndState = new StateAndContract(outputState, SHARED_SPACE_CONTRACT_ID);
 
         progressTracker.setCurrentStep(TX_BUILDING);
 
         // We create a transaction builder and add the components.
-        final TransactionBuilder txBuilder = new TransactionBuilder(notary)
-                .addInputState(getServiceHub().toStateAndRef(stateAndRef.getRef()))
-                .withItems(outputContractAndState, cmd);
+        final TransactionBuilder txBuilder = new TransactionBuilder(notary);
+        for (StateAndRef<SharedItemState> stateAndRef: stateAndRefs) {
+            SharedItemState inputState = stateAndRef.getState().getData();
+            SharedItemState outputState = new SharedItemState(inputState.getFrom(), to, inputState.getToTmpId(), inputState.getLink(), inputState.getTimestamp());
+            txBuilder
+                    .addInputState(getServiceHub().toStateAndRef(stateAndRef.getRef()))
+                    .withItems(new StateAndContract(outputState, SHARED_SPACE_CONTRACT_ID));
+        }
+
+        txBuilder.withItems(cmd);
 
         progressTracker.setCurrentStep(TX_VERIFICATION);
         txBuilder.verify(getServiceHub());
@@ -0,0 +1,35 @@
+package com.template;
+
+import java.util.List;
+
+/**
+ * One page of a listing returned by the web API.
+ */
+public class ResultPage<T> {
+    private final List<T> items;
+    private final int page;
+    private final int pageSize;
+    private final long total;
+
+    /**
+     * @param items the items on this page
+     * @param page 1-based page number
+     * @param pageSize maximum number of items per page
+     * @param total number of items available across all pages
+     */
+    public ResultPage(List<T> items, int page, int pageSize, long total) {
+        this.items = items;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.total = total;
+    }
+
+    public List<T> getItems() { return items; }
+    public int getPage() { return page; }
+    public int getPageSize() { return pageSize; }
+    public long getTotal() { return total; }
+
+    public boolean hasNext() {
+        return (long) page * pageSize < total;
+    }
+}
@@ -0,0 +1,267 @@
+package com.template;
+
+import com.codahale.metrics.Timer;
+import net.corda.client.rpc.CordaRPCClient;
+import net.corda.client.rpc.CordaRPCClientConfiguration;
+import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.utilities.NetworkHostAndPort;
+import org.apache.activemq.artemis.api.core.ActiveMQException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Spreads RPC calls over several connections to the same node, so that concurrent callers aren't serialised on a
+ * single Artemis session.
+ *
+ * getProxy returns a CordaRPCOps that sends each call over the next connection in turn. At most maxInFlight calls
+ * run at once, and further callers wait for one to finish. A connection that fails with an ActiveMQException is
+ * replaced, and the call is retried once on the new connection unless it starts a flow, since the flow may already
+ * have started. The replacement is opened before the failed connection is closed; if it can't be opened, the call
+ * fails and the next call on that connection tries again. Only callers of the connection being replaced wait for it.
+ *
+ * Observables returned by a call, e.g. by vaultTrackBy, are tied to the connection that made it, and stop if that
+ * connection is replaced.
+ */
+public class RpcConnectionPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RpcConnectionPool.class);
+
+    private final Supplier<Connection> opener;
+    private final Slot[] slots;
+    private final AtomicInteger next = new AtomicInteger();
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final Timer latency = new Timer();
+    private final CordaRPCOps proxy;
+
+    public RpcConnectionPool(NetworkHostAndPort address, String username, String password, int size, int maxInFlight) {
+        this(address, CordaRPCClientConfiguration.DEFAULT, username, password, size, maxInFlight);
+    }
+
+    /**
+     * @param size number of connections to open, e.g. the number of cores
+     * @param maxInFlight maximum number of calls running at once, across all connections
+     */
+    public RpcConnectionPool(NetworkHostAndPort address, CordaRPCClientConfiguration configuration, String username, String password, int size, int maxInFlight) {
+        this(opener(new CordaRPCClient(address, configuration), username, password), size, maxInFlight);
+    }
+
+    RpcConnectionPool(Supplier<Connection> opener, int size, int maxInFlight) {
+        if (size < 1) throw new IllegalArgumentException("pool size must be at least 1");
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+
+        this.opener = opener;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(opener.get());
+        }
+
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.proxy = (CordaRPCOps) Proxy.newProxyInstance(
+                CordaRPCOps.class.getClassLoader(),
+                new Class<?>[] { CordaRPCOps.class },
+                (target, method, args) -> method.getDeclaringClass() == Object.class
+                        ? method.invoke(this, args)
+                        : invoke(method, args));
+    }
+
+    public CordaRPCOps getProxy() {
+        return proxy;
+    }
+
+    private Object invoke(Method method, Object[] args) throws Throwable {
+        long start = System.nanoTime();
+        inFlight.acquire();
+        calls.increment();
+        try {
+            int index = Math.floorMod(next.getAndIncrement(), slots.length);
+            Slot slot = slots[index];
+            Connection connection = slot.connection;
+            // the last attempt to replace it failed
+            if (slot.failed) connection = reconnect(slot, connection);
+
+            try {
+                return invoke(connection, method, args);
+            } catch (Throwable e) {
+                if (!isConnectionFailure(e)) throw e;
+
+                logger.warn("RPC connection {} failed, reconnecting", index, e);
+                Connection replacement;
+                try {
+                    replacement = reconnect(slot, connection);
+                } catch (RuntimeException reconnectFailure) {
+                    e.addSuppressed(reconnectFailure);
+                    throw e;
+                }
+
+                if (method.getName().startsWith("start")) throw e;
+
+                return invoke(replacement, method, args);
+            }
+        } catch (Throwable e) {
+            failures.increment();
+            throw e;
+        } finally {
+            latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            inFlight.release();
+        }
+    }
+
+    private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection.getProxy(), args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ActiveMQException) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Replaces the connection in a slot, unless another caller already has. The failed connection stays in the slot
+     * until a replacement is open, and if opening one throws, the slot is marked so the next call tries again.
+     */
+    private Connection reconnect(Slot slot, Connection failed) {
+        // only callers of this slot wait while the replacement is opened
+        synchronized (slot) {
+            if (slot.connection != failed) return slot.connection;
+
+            Connection replacement;
+            try {
+                replacement = opener.get();
+            } catch (RuntimeException e) {
+                slot.failed = true;
+                throw e;
+            }
+
+            slot.connection = replacement;
+            slot.failed = false;
+            reconnects.increment();
+            try {
+                failed.forceClose();
+            } catch (Exception e) {
+                // already broken
+            }
+
+            return replacement;
+        }
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(
+                slots.length,
+                maxInFlight - inFlight.availablePermits(),
+                inFlight.getQueueLength(),
+                calls.sum(),
+                failures.sum(),
+                reconnects.sum(),
+                LatencySnapshot.of(latency));
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < slots.length; i++) {
+            try {
+                slots[i].connection.notifyServerAndClose();
+            } catch (Exception e) {
+                logger.warn("Failed to close RPC connection {}", i, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(connections=%d, maxInFlight=%d)", getClass().getSimpleName(), slots.length, maxInFlight);
+    }
+
+    private static Supplier<Connection> opener(CordaRPCClient client, String username, String password) {
+        return () -> {
+            CordaRPCConnection connection = client.start(username, password);
+            return new Connection() {
+                @Override
+                public CordaRPCOps getProxy() {
+                    return connection.getProxy();
+                }
+
+                @Override
+                public void forceClose() {
+                    connection.forceClose();
+                }
+
+                @Override
+                public void notifyServerAndClose() {
+                    connection.notifyServerAndClose();
+                }
+            };
+        };
+    }
+
+    /**
+     * The parts of a CordaRPCConnection the pool uses.
+     */
+    interface Connection {
+        CordaRPCOps getProxy();
+        void forceClose();
+        void notifyServerAndClose();
+    }
+
+    private static class Slot {
+        volatile Connection connection;
+        // set when opening a replacement failed, so connection is known to be broken
+        volatile boolean failed;
+
+        Slot(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    public static class Metrics {
+        private final int connections;
+        private final int inFlight;
+        private final int waiting;
+        private final long calls;
+        private final long failures;
+        private final long reconnects;
+        private final LatencySnapshot latency;
+
+        public Metrics(int connections, int inFlight, int waiting, long calls, long failures, long reconnects, LatencySnapshot latency) {
+            this.connections = connections;
+            this.inFlight = inFlight;
+            this.waiting = waiting;
+            this.calls = calls;
+            this.failures = failures;
+            this.reconnects = reconnects;
+            this.latency = latency;
+        }
+
+        public int getConnections() { return connections; }
+        public int getInFlight() { return inFlight; }
+        /** @return callers waiting for a call to finish before they can make theirs */
+        public int getWaiting() { return waiting; }
+        public long getCalls() { return calls; }
+        public long getFailures() { return failures; }
+        public long getReconnects() { return reconnects; }
+        /** @return call latencies in milliseconds, including time waiting for a connection */
+        public LatencySnapshot getLatency() { return latency; }
+    }
+}
@@ -0,0 +1,30 @@
+package com.template;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.DataVendingFlow;
+import net.corda.core.flows.FetchDataFlow;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.UntrustworthyData;
+
+/**
+ * Answers a counterparty's dependency requests for a transaction that has already been sent to it, the same way
+ * SendTransactionFlow does after sending it. Lets a flow send transactions up front and serve their dependencies
+ * later, so counterparties can start resolving them before it waits on any of them.
+ */
+class SentTransactionVendingFlow extends DataVendingFlow {
+    private boolean sent = false;
+
+    SentTransactionVendingFlow(FlowSession otherSideSession, SignedTransaction tx) {
+        super(otherSideSession, tx);
+    }
+
+    @Suspendable
+    @Override
+    protected UntrustworthyData<FetchDataFlow.Request> sendPayloadAndReceiveDataRequest(FlowSession otherSideSession, Object payload) {
+        if (sent) return super.sendPayloadAndReceiveDataRequest(otherSideSession, payload);
+
+        sent = true;
+        return otherSideSession.receive(FetchDataFlow.Request.class);
+    }
+}
@@ -0,0 +1,28 @@
+package com.template;
+
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * Outcome of sharing a transaction with one recipient.
+ */
+@CordaSerializable
+public class ShareResult {
+    private final Party party;
+    private final boolean shared;
+    private final String error;
+
+    public ShareResult(Party party, boolean shared, String error) {
+        this.party = party;
+        this.shared = shared;
+        this.error = error;
+    }
+
+    public Party getParty() { return party; }
+    public boolean isShared() { return shared; }
+
+    /**
+     * @return why the recipient didn't record the transaction, or null if it did
+     */
+    public String getError() { return error; }
+}
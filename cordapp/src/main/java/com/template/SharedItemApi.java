@@ -1,106 +1,136 @@
 package com.template;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.template.schema.SharedItemSchemaV2;
+import net.corda.client.jackson.JacksonSupport;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.core.node.services.vault.Sort;
 import net.corda.core.transactions.SignedTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 // This API is accessible from /api/template. The endpoint paths specified below are relative to it.
 @Path("share")
 public class SharedItemApi {
     static private final Logger logger = LoggerFactory.getLogger(SharedItemApi.class);
-    private final List<String> apiKeys;
+    public static final String APPLICATION_CBOR = "application/cbor";
+    private static final MediaType APPLICATION_CBOR_TYPE = MediaType.valueOf(APPLICATION_CBOR);
+    private final ApiKeyStore apiKeys;
 
     private final CordaRPCOps rpcOps;
     private final SharedItemClient client;
+    private final SharedItemReader reader;
+    private final PartyCache parties;
+    private final CounterpartyIndex counterparties;
+    private final ObjectMapper mapper;
+    private final ObjectMapper cborMapper = SharedItemJacksonModule.register(new ObjectMapper(new CBORFactory()));
+    private final FlowJobRegistry jobs = new FlowJobRegistry();
+    private final FlowMetrics metrics = new FlowMetrics();
 //    private final Response forbidden = Response.status(Status.FORBIDDEN)
 //        .entity("invalid api key")
 //        .build();
 
     public SharedItemApi(CordaRPCOps rpcOps) {
         this.rpcOps = rpcOps;
-        this.client = new SharedItemClient(rpcOps);
+        long cacheTtl = Long.getLong("sharedItem.queryCacheTtlMillis", 0);
+        this.client = new SharedItemClient(rpcOps, Duration.ofMillis(cacheTtl));
+        // with -DsharedItem.readReplica=true, reads are served from a copy of the vault held in this process
+        this.reader = Boolean.getBoolean("sharedItem.readReplica") ? new SharedItemReplica(client) : client;
+        this.parties = new PartyCache(rpcOps);
+        this.counterparties = new CounterpartyIndex(reader, parties);
+        // the webserver's mapper is customised the same way, see TemplateWebPlugin
+        this.mapper = SharedItemJacksonModule.register(JacksonSupport.createDefaultMapper(rpcOps));
         ClassLoader classloader = Thread.currentThread().getContextClassLoader();
-        InputStream is = classloader.getResourceAsStream("certificates/apikeys.txt");
-        List<String> lines = null;
-        if (is != null) {
-            try {
-                lines = readInputStream(is);
-            } catch (IOException i) {
-                logger.info("No API Key set for API");
-                lines = null;
-            }
-
-        }
-        if (lines == null) {
-            this.apiKeys = null;
-        } else {
-            this.apiKeys = lines.stream().filter(item -> !item.isEmpty()).collect(Collectors.toList());
-        }
+        this.apiKeys = ApiKeyStore.fromResource(classloader, "certificates/apikeys.txt");
     }
 
     private void auth(String apiKey) {
-        if (this.apiKeys == null || this.apiKeys.isEmpty()) return;
-        if (!this.apiKeys.contains((apiKey))) {
+        if (!this.apiKeys.check(apiKey)) {
             throw new WebApplicationException(Status.FORBIDDEN);
         }
     }
 
-    private List<String> readInputStream(InputStream is) throws IOException {
-        InputStreamReader streamReader = new InputStreamReader(is, StandardCharsets.UTF_8);
-        BufferedReader reader = new BufferedReader(streamReader);
-        List<String> lines = new ArrayList<>();
-        for (String line; (line = reader.readLine()) != null;) {
-            lines.add(line);
-        }
-
-        return lines;
-    }
-
-    private List<TransactionIdWrapper> txsToIds (List<SignedTransaction> txs) {
-        return txs.stream().map(TransactionIdWrapper::new).collect(Collectors.toList());
-    }
-
     /**
      * Displays all states with unresolved "to" that exist in the node's vault.
+     * Streams all matches as an array unless a page is requested. See listResponse for the formats.
      */
     @GET
     @Path("unresolved")
-    @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<SharedItemState>> getUnresolvedPartiesHandler(
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_CBOR})
+    public Response getUnresolvedPartiesHandler(
             @HeaderParam("Authorization") String apiKey,
-            @QueryParam("partyTmpId") String partyTmpId) {
+            @Context HttpHeaders headers,
+            @QueryParam("partyTmpId") String partyTmpId,
+            @QueryParam("compact") boolean compact,
+            @QueryParam("page") Integer page,
+            @QueryParam("pageSize") Integer pageSize) {
         auth(apiKey);
 
-        return client.getSharedItemsWithUnresolvedTo(partyTmpId);
+        SharedItemFilter filter = new SharedItemFilter()
+                .setUnresolved(true)
+                .setToTmpId(partyTmpId);
+
+        return listResponse(filter, page, pageSize, compact, acceptsCbor(headers));
     }
 
     /**
-     * List parties for which there are shared items
+     * List parties for which there are shared items, sorted by name.
+     * With counts=true, each party is listed with its number of unconsumed items.
      */
     @GET
     @Path("parties")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Party> getUnresolvedPartiesHandler(
-            @HeaderParam("Authorization") String apiKey
+    public Response getUnresolvedPartiesHandler(
+            @HeaderParam("Authorization") String apiKey,
+            @QueryParam("counts") boolean counts,
+            @QueryParam("page") Integer page,
+            @QueryParam("pageSize") Integer pageSize
     ) {
         auth(apiKey);
 
-        return client.listParties();
+        List<?> result = counts ? counterparties.getCounts() : counterparties.getParties();
+        if (page == null) {
+            return Response.ok(result).build();
+        }
+
+        int size = pageSize == null ? SharedItemClient.DEFAULT_PAGE_SIZE : pageSize;
+        if (page < 1 || size < 1 || size > SharedItemClient.MAX_PAGE_SIZE) {
+            return Response
+                    .status(Status.BAD_REQUEST)
+                    .entity(String.format("Query parameter 'page' must be at least 1 and 'pageSize' between 1 and %d.\n", SharedItemClient.MAX_PAGE_SIZE))
+                    .build();
+        }
+
+        int fromIndex = (int) Math.min((long) (page - 1) * size, result.size());
+        int toIndex = Math.min(fromIndex + size, result.size());
+        return Response
+                .ok(new ResultPage<>(result.subList(fromIndex, toIndex), page, size, result.size()))
+                .build();
     }
 
 //    /**
@@ -133,155 +163,592 @@ public class SharedItemApi {
 //    }
 
     /**
-     * Displays all states with unresolved "to" that exist in the node's vault.
+     * Displays all states that match the given conditions.
+     * Streams all matches as an array unless a page is requested. See listResponse for the formats.
      */
     @GET
     @Path("items")
-    @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<SharedItemState>> listWithFilterHandler(
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_CBOR})
+    public Response listWithFilterHandler(
             @HeaderParam("Authorization") String apiKey,
+            @Context HttpHeaders headers,
             @QueryParam("link") String link,
             @QueryParam("from") String from,
             @QueryParam("to") String to,
             @QueryParam("toTmpId") String toTmpId,
-            @QueryParam("timestamp") Long timestamp
+            @QueryParam("timestamp") Long timestamp,
+            @QueryParam("since") Long since,
+            @QueryParam("until") Long until,
+            @QueryParam("sort") String sort,
+            @QueryParam("compact") boolean compact,
+            @QueryParam("page") Integer page,
+            @QueryParam("pageSize") Integer pageSize
     ) {
         auth(apiKey);
 
-        if (link == null && from == null && to == null && toTmpId == null && timestamp == null) {
-            return client.list();
+        SharedItemFilter filter = new SharedItemFilter()
+                .setLink(link)
+                .setFrom(parseName("from", from))
+                .setTo(parseName("to", to))
+                .setToTmpId(toTmpId)
+                .setTimestamp(timestamp)
+                .setSince(since)
+                .setUntil(until)
+                .setTimestampOrder(parseSort(sort));
+
+        return listResponse(filter, page, pageSize, compact, acceptsCbor(headers));
+    }
+
+    /**
+     * Accessible at /api/share/items/by-link
+     *
+     * Looks up the items with each of the given links, e.g. to check which links have already been shared.
+     * Responds with an object mapping every link to its items, empty if there are none.
+     */
+    @GET
+    @Path("items/by-link")
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_CBOR})
+    public Response getByLinkHandler(
+            @HeaderParam("Authorization") String apiKey,
+            @Context HttpHeaders headers,
+            @QueryParam("link") List<String> links,
+            @QueryParam("compact") boolean compact
+    ) {
+        auth(apiKey);
+        return linkLookupResponse(links, compact, acceptsCbor(headers));
+    }
+
+    /**
+     * Same as GET /api/share/items/by-link, for batches of links too long for a query string.
+     */
+    @POST
+    @Path("items/by-link")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_CBOR})
+    public Response postByLinkHandler(
+            @HeaderParam("Authorization") String apiKey,
+            @Context HttpHeaders headers,
+            @FormParam("link") List<String> links,
+            @FormParam("compact") boolean compact
+    ) {
+        auth(apiKey);
+        return linkLookupResponse(links, compact, acceptsCbor(headers));
+    }
+
+    private Response linkLookupResponse(List<String> links, boolean compact, boolean cbor) {
+        if (links == null || links.isEmpty() || links.size() > SharedItemClient.MAX_LOOKUP_LINKS) {
+            return Response
+                    .status(Status.BAD_REQUEST)
+                    .entity(String.format("Between 1 and %d 'link' parameters must be provided.\n", SharedItemClient.MAX_LOOKUP_LINKS))
+                    .build();
         }
 
-        return client.listWithFilter(state -> {
-            if (!(from == null || state.getFrom().equals(rpcOps.wellKnownPartyFromX500Name(CordaX500Name.parse(from))))) {
-                return false;
-            }
+        Map<String, List<StateAndRef<SharedItemState>>> found = reader.getStatesWithLinks(links);
+        if (!compact && !cbor) return Response.ok(found).build();
 
-            if (!(to == null || state.getTo().equals(rpcOps.wellKnownPartyFromX500Name(CordaX500Name.parse(from))))) {
-                return false;
-            }
+        Map<String, List<SharedItemView>> views = new LinkedHashMap<>();
+        found.forEach((link, items) -> views.put(link, items.stream().map(SharedItemView::of).collect(Collectors.toList())));
+        return entity(views, cbor);
+    }
 
-            if (!(toTmpId == null || toTmpId.equals(state.getToTmpId()))) {
-                return false;
-            }
+    /**
+     * Accessible at /api/share/items/updates
+     *
+     * Server-Sent Events stream of the states matching the given conditions: a snapshot, then their changes as
+     * they are recorded. See VaultUpdateStream for the events sent.
+     */
+    @GET
+    @Path("items/updates")
+    @Produces(VaultUpdateStream.MEDIA_TYPE)
+    public Response streamUpdatesHandler(
+            @HeaderParam("Authorization") String apiKey,
+            @QueryParam("link") String link,
+            @QueryParam("from") String from,
+            @QueryParam("to") String to,
+            @QueryParam("toTmpId") String toTmpId,
+            @QueryParam("since") Long since,
+            @QueryParam("until") Long until
+    ) {
+        auth(apiKey);
+
+        SharedItemFilter filter = new SharedItemFilter()
+                .setLink(link)
+                .setFrom(parseName("from", from))
+                .setTo(parseName("to", to))
+                .setToTmpId(toTmpId)
+                .setSince(since)
+                .setUntil(until);
+
+        VaultUpdateStream stream = VaultUpdateStream.open(reader, mapper, filter);
+        if (stream == null) {
+            return Response
+                    .status(Status.SERVICE_UNAVAILABLE)
+                    .entity("Too many update streams are open.\n")
+                    .build();
+        }
 
-            if (!(link == null || link.equals(state.getLink()))) {
-                return false;
+        return Response
+                .ok(stream)
+                .header("Cache-Control", "no-cache")
+                .build();
+    }
+
+    /**
+     * Items are listed as full StateAndRefs in JSON, or as SharedItemViews if compact is set. Clients that accept
+     * application/cbor, and prefer it to JSON, are sent SharedItemViews as CBOR instead, which is smaller still and
+     * cheaper to write.
+     *
+     * @param page 1-based page to return, or null to stream every page
+     * @param pageSize number of states per page, or per vault query when streaming
+     */
+    private Response listResponse(SharedItemFilter filter, Integer page, Integer pageSize, boolean compact, boolean cbor) {
+        Function<StateAndRef<SharedItemState>, ?> projection = compact || cbor ? SharedItemView::of : item -> item;
+        int size = pageSize == null ? SharedItemClient.DEFAULT_PAGE_SIZE : pageSize;
+        if (page != null) {
+            ResultPage<StateAndRef<SharedItemState>> result;
+            try {
+                result = reader.page(filter, page, size);
+            } catch (IllegalArgumentException e) {
+                return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
             }
 
-            if (!(timestamp == null || timestamp.longValue() == state.getTimestamp())) {
-                return false;
+            List<?> items = result.getItems().stream().map(projection).collect(Collectors.toList());
+            return entity(new ResultPage<>(items, result.getPage(), result.getPageSize(), result.getTotal()), cbor);
+        }
+
+        if (size < 1 || size > SharedItemClient.MAX_PAGE_SIZE) {
+            return Response
+                    .status(Status.BAD_REQUEST)
+                    .entity(String.format("Query parameter 'pageSize' must be between 1 and %d.\n", SharedItemClient.MAX_PAGE_SIZE))
+                    .build();
+        }
+
+        StreamingOutput body = out -> writeArray(out, cbor ? cborMapper : mapper, filter, size, projection);
+        return Response.ok(body, cbor ? APPLICATION_CBOR : MediaType.APPLICATION_JSON).build();
+    }
+
+    /**
+     * Writes all matching states as one array, querying and flushing one vault page at a time.
+     */
+    private void writeArray(OutputStream out, ObjectMapper mapper, SharedItemFilter filter, int pageSize, Function<StateAndRef<SharedItemState>, ?> projection) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.writeStartArray();
+        try {
+            reader.forEachPage(filter, pageSize, items -> {
+                try {
+                    for (StateAndRef<SharedItemState> item: items) {
+                        generator.writeObject(projection.apply(item));
+                    }
+
+                    generator.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    /**
+     * @return the entity as CBOR, or as-is to be written as JSON
+     */
+    private Response entity(Object entity, boolean cbor) {
+        if (!cbor) return Response.ok(entity).build();
+
+        StreamingOutput body = out -> cborMapper.writeValue(out, entity);
+        return Response.ok(body, APPLICATION_CBOR).build();
+    }
+
+    /**
+     * @return whether the client prefers CBOR to JSON, going by the Accept header
+     */
+    private static boolean acceptsCbor(HttpHeaders headers) {
+        // sorted by preference
+        for (MediaType type: headers.getAcceptableMediaTypes()) {
+            if (type.isCompatible(MediaType.APPLICATION_JSON_TYPE)) return false;
+            if (type.isCompatible(APPLICATION_CBOR_TYPE)) return true;
+        }
+
+        return false;
+    }
+
+    private static CordaX500Name parseName(String paramName, String name) {
+        if (name == null) return null;
+
+        try {
+            return CordaX500Name.parse(name);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST)
+                    .entity(String.format("Query parameter '%s' is not a valid X.500 name: %s\n", paramName, e.getMessage()))
+                    .build());
+        }
+    }
+
+    /**
+     * Accessible at /api/share/stats
+     *
+     * Number of items matching the given conditions, and their first and last timestamps, optionally per value
+     * of from, to or toTmpId. Aggregated by the node's database, or by the read replica if there is one.
+     */
+    @GET
+    @Path("stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response statsHandler(
+            @HeaderParam("Authorization") String apiKey,
+            @QueryParam("groupBy") String groupBy,
+            @QueryParam("from") String from,
+            @QueryParam("to") String to,
+            @QueryParam("toTmpId") String toTmpId,
+            @QueryParam("unresolved") boolean unresolved,
+            @QueryParam("since") Long since,
+            @QueryParam("until") Long until
+    ) {
+        auth(apiKey);
+
+        Field column = null;
+        if (groupBy != null) {
+            switch (groupBy) {
+                case "from": column = SharedItemSchemaV2.from; break;
+                case "to": column = SharedItemSchemaV2.to; break;
+                case "toTmpId": column = SharedItemSchemaV2.toTmpId; break;
+                default:
+                    return Response
+                            .status(Status.BAD_REQUEST)
+                            .entity("Query parameter 'groupBy' must be 'from', 'to' or 'toTmpId'.\n")
+                            .build();
             }
+        }
 
-            return true;
-        });
+        SharedItemFilter filter = new SharedItemFilter()
+                .setFrom(parseName("from", from))
+                .setTo(parseName("to", to))
+                .setToTmpId(toTmpId)
+                .setUnresolved(unresolved)
+                .setSince(since)
+                .setUntil(until);
+
+        try {
+            return Response.ok(reader.stats(filter, column)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+
+    /**
+     * @param sort "timestamp" for oldest first, "-timestamp" for newest first, or null for no particular order
+     */
+    private static Sort.Direction parseSort(String sort) {
+        if (sort == null) return null;
+
+        switch (sort) {
+            case "timestamp": return Sort.Direction.ASC;
+            case "-timestamp": return Sort.Direction.DESC;
+            default:
+                throw new WebApplicationException(Response
+                        .status(Status.BAD_REQUEST)
+                        .entity("Query parameter 'sort' must be 'timestamp' or '-timestamp'.\n")
+                        .build());
+        }
     }
 
     /**
      * Accessible at /api/share/item
+     *
+     * Responds when the flow completes, without holding a server thread while it runs. With async=true, responds
+     * straight away with 202 and a job whose outcome can be polled at /api/share/jobs/{id}.
+     * With notarised=false, the transaction is recorded without a notary round trip.
      */
     @POST
     @Path("item")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response createSharedItemHandler(
+    public void createSharedItemHandler(
             @HeaderParam("Authorization") String apiKey,
             @FormParam("link") String link,
             @FormParam("partyName") CordaX500Name partyName,
-            @FormParam("partyTmpId") String partyTmpId
+            @FormParam("partyTmpId") String partyTmpId,
+            @FormParam("notarised") @DefaultValue("true") boolean notarised,
+            @FormParam("async") boolean async,
+            @Suspended final AsyncResponse asyncResponse
     ) {
         auth(apiKey);
 
         Party party = null;
         if (partyName == null) {
             if (partyTmpId == null) {
-                return Response
+                asyncResponse.resume(Response
                         .status(Status.BAD_REQUEST)
                         .entity("Query parameter 'partyName' or 'partyTmpId' must be provided.\n")
-                        .build();
+                        .build());
+                return;
             }
         } else {
-            final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
-            if (otherParty == null) {
-                return Response
+            party = parties.wellKnownPartyFromX500Name(partyName);
+            if (party == null) {
+                asyncResponse.resume(Response
                         .status(Status.BAD_REQUEST)
                         .entity("Party named " + partyName + "cannot be found.\n")
-                        .build();
+                        .build());
+                return;
             }
         }
 
         try {
             FlowProgressHandle<SignedTransaction> flowHandle;
             if (party != null) {
-                flowHandle = rpcOps.startTrackedFlowDynamic(SharedItemCreateFlow.class, party, link);
+                flowHandle = rpcOps.startTrackedFlowDynamic(SharedItemCreateFlow.class, party, link, notarised);
             } else {
-                flowHandle = rpcOps.startTrackedFlowDynamic(SharedItemCreateFlow.class, partyTmpId, link);
+                flowHandle = rpcOps.startTrackedFlowDynamic(SharedItemCreateFlow.class, partyTmpId, link, notarised);
             }
 
-            flowHandle.getProgress().subscribe(evt -> System.out.printf(">> %s\n", evt));
+            respond(flowHandle, SharedItemCreateFlow.class, async, TransactionIdWrapper::new, asyncResponse);
+        } catch (Throwable ex) {
+            final String msg = ex.getMessage();
+            logger.error(ex.getMessage(), ex);
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(msg)
+                    .build());
+        }
+    }
 
-            // The line below blocks and waits for the flow to return.
-            final SignedTransaction result = flowHandle
-                    .getReturnValue()
-                    .get();
+    /**
+     * Accessible at /api/share/items/bulk
+     *
+     * Shares every given link with the same counterparty in a single transaction. Supports async=true like
+     * /api/share/item.
+     */
+    @POST
+    @Path("items/bulk")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void bulkCreateSharedItemsHandler(
+            @HeaderParam("Authorization") String apiKey,
+            @FormParam("link") List<String> links,
+            @FormParam("partyName") CordaX500Name partyName,
+            @FormParam("partyTmpId") String partyTmpId,
+            @FormParam("notarised") @DefaultValue("true") boolean notarised,
+            @FormParam("async") boolean async,
+            @Suspended final AsyncResponse asyncResponse
+    ) {
+        auth(apiKey);
 
-            return Response
-                    .status(Status.CREATED)
-                    .entity(new TransactionIdWrapper(result.getId().toString()))
-                    .build();
+        if (links == null || links.isEmpty() || links.size() > SharedItemBulkCreateFlow.MAX_LINKS) {
+            asyncResponse.resume(Response
+                    .status(Status.BAD_REQUEST)
+                    .entity(String.format("Between 1 and %d 'link' parameters must be provided.\n", SharedItemBulkCreateFlow.MAX_LINKS))
+                    .build());
+            return;
+        }
 
+        Party party = null;
+        if (partyName == null) {
+            if (partyTmpId == null) {
+                asyncResponse.resume(Response
+                        .status(Status.BAD_REQUEST)
+                        .entity("Query parameter 'partyName' or 'partyTmpId' must be provided.\n")
+                        .build());
+                return;
+            }
+        } else {
+            party = parties.wellKnownPartyFromX500Name(partyName);
+            if (party == null) {
+                asyncResponse.resume(Response
+                        .status(Status.BAD_REQUEST)
+                        .entity("Party named " + partyName + "cannot be found.\n")
+                        .build());
+                return;
+            }
+        }
+
+        try {
+            FlowProgressHandle<SignedTransaction> flowHandle;
+            if (party != null) {
+                flowHandle = rpcOps.startTrackedFlowDynamic(SharedItemBulkCreateFlow.class, party, links, notarised);
+            } else {
+                flowHandle = rpcOps.startTrackedFlowDynamic(SharedItemBulkCreateFlow.class, partyTmpId, links, notarised);
+            }
+
+            respond(flowHandle, SharedItemBulkCreateFlow.class, async, TransactionIdWrapper::new, asyncResponse);
         } catch (Throwable ex) {
             final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
-            return Response.status(Response.Status.BAD_REQUEST)
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
                     .entity(msg)
-                    .build();
+                    .build());
         }
     }
 
     /**
      * Accessible at /api/share/resolveparty
+     *
+     * Responds when the flow completes, or straight away with a job to poll if async=true.
      */
     @POST
     @Path("resolveparty")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response resolvePartyHandler(
+    public void resolvePartyHandler(
             @HeaderParam("Authorization") String apiKey,
             @FormParam("partyTmpId") String partyTmpId,
-            @FormParam("partyName") CordaX500Name partyName
+            @FormParam("partyName") CordaX500Name partyName,
+            @FormParam("batchSize") Integer batchSize,
+            @FormParam("async") boolean async,
+            @Suspended final AsyncResponse asyncResponse
     ) {
         auth(apiKey);
 
+        if (partyTmpId == null) {
+            asyncResponse.resume(Response
+                    .status(Status.BAD_REQUEST)
+                    .entity("Query parameter 'partyTmpId' must be provided.\n").build());
+            return;
+        }
+
         if (partyName == null) {
-            return Response
+            asyncResponse.resume(Response
                     .status(Status.BAD_REQUEST)
-                    .entity("Query parameter 'partyName' must be provided.\n").build();
+                    .entity("Query parameter 'partyName' must be provided.\n").build());
+            return;
         }
 
-        final Party party = rpcOps.wellKnownPartyFromX500Name(partyName);
+        final Party party = parties.wellKnownPartyFromX500Name(partyName);
         if (party == null) {
-            return Response
+            asyncResponse.resume(Response
                     .status(Status.BAD_REQUEST)
-                    .entity("Party named " + partyName + "cannot be found.\n").build();
+                    .entity("Party named " + partyName + "cannot be found.\n").build());
+            return;
         }
 
         try {
-            FlowProgressHandle<List<SignedTransaction>> flowHandle = rpcOps.startTrackedFlowDynamic(ResolveToIdentityFlow.class, partyTmpId, party);
-            flowHandle.getProgress().subscribe(evt -> System.out.printf(">> %s\n", evt));
-
-            // The line below blocks and waits for the flow to return.
-            final List<SignedTransaction> result = flowHandle
-                    .getReturnValue()
-                    .get();
+            FlowProgressHandle<ResolveResult> flowHandle;
+            if (batchSize != null) {
+                flowHandle = rpcOps.startTrackedFlowDynamic(ResolveToIdentityFlow.class, partyTmpId, party, batchSize);
+            } else {
+                flowHandle = rpcOps.startTrackedFlowDynamic(ResolveToIdentityFlow.class, partyTmpId, party);
+            }
 
-            return Response.status(Status.CREATED)
-                    .entity(txsToIds(result))
-                    .build();
+            respond(flowHandle, ResolveToIdentityFlow.class, async, Function.identity(), asyncResponse);
         } catch (Throwable ex) {
             final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
-            return Response.status(Response.Status.BAD_REQUEST).entity(msg).build();
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity(msg).build());
+        }
+    }
+
+    /**
+     * Accessible at /api/share/jobs/{id}
+     *
+     * Reports the status of a flow started with async=true, and its result once it has completed.
+     */
+    @GET
+    @Path("jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJobHandler(
+            @HeaderParam("Authorization") String apiKey,
+            @PathParam("id") String id
+    ) {
+        auth(apiKey);
+
+        FlowJob job = jobs.get(id);
+        if (job == null) {
+            return Response
+                    .status(Status.NOT_FOUND)
+                    .entity("No job with id " + id + ".\n")
+                    .build();
+        }
+
+        return Response.ok(job).build();
+    }
+
+    /**
+     * Accessible at /api/share/metrics
+     *
+     * Latency histograms (in milliseconds) of each ProgressTracker step of the flows started through this API.
+     */
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Map<String, LatencySnapshot>> getMetricsHandler(
+            @HeaderParam("Authorization") String apiKey
+    ) {
+        auth(apiKey);
+
+        return metrics.snapshot();
+    }
+
+    /**
+     * Accessible at /api/share/metrics/apikeys
+     *
+     * Number of accepted requests per API key, with keys identified by a prefix of their SHA-256 digest.
+     */
+    @GET
+    @Path("metrics/apikeys")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Long> getApiKeyMetricsHandler(
+            @HeaderParam("Authorization") String apiKey
+    ) {
+        auth(apiKey);
+
+        return apiKeys.getRequestCounts();
+    }
+
+    /**
+     * Accessible at /api/share/metrics/queries
+     *
+     * Number of vault queries run for item listings, lookups and stats, and of requests answered without one.
+     * Also the number of open update streams and, with a read replica, the number of items it holds, or -1 while
+     * reads go to the node.
+     */
+    @GET
+    @Path("metrics/queries")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Long> getQueryMetricsHandler(
+            @HeaderParam("Authorization") String apiKey
+    ) {
+        auth(apiKey);
+
+        Map<String, Long> counts = client.getQueryCounts();
+        counts.put("updateStreams", (long) VaultUpdateStream.getSubscribers());
+        if (reader instanceof SharedItemReplica) {
+            counts.put("replicaItems", (long) ((SharedItemReplica) reader).size());
+        }
+
+        return counts;
+    }
+
+    /**
+     * Resumes the suspended request once the flow completes, so no server thread waits on it.
+     * In async mode, resumes it straight away with 202 and a job to poll instead.
+     */
+    private <T> void respond(FlowProgressHandle<T> flowHandle, Class<?> flowClass, boolean async, Function<T, ?> toEntity, AsyncResponse asyncResponse) {
+        metrics.track(flowClass, flowHandle);
+
+        if (async) {
+            FlowJob job = jobs.register(flowHandle, flowClass.getSimpleName(), toEntity);
+            asyncResponse.resume(Response.status(Status.ACCEPTED).entity(job).build());
+            return;
         }
+
+        flowHandle.getReturnValue().then(future -> {
+            try {
+                asyncResponse.resume(Response
+                        .status(Status.CREATED)
+                        .entity(toEntity.apply(future.get()))
+                        .build());
+            } catch (Throwable ex) {
+                final Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+                logger.error(cause.getMessage(), cause);
+                asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST)
+                        .entity(cause.getMessage())
+                        .build());
+            }
+
+            return null;
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package com.template;
+
+import net.corda.core.flows.InitiatingFlow;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+
+import java.util.List;
+
+/**
+ * Shares many links with the same counterparty in a single transaction, so signatures are collected and the
+ * transaction is notarised once for the whole batch.
+ */
+@InitiatingFlow
+@StartableByRPC
+public class SharedItemBulkCreateFlow extends AbstractSharedItemCreateFlow {
+    public static int MAX_LINKS = 1000;
+
+    public SharedItemBulkCreateFlow(Party to, List<String> links) {
+        this(to, links, true);
+    }
+
+    public SharedItemBulkCreateFlow(String toTmpId, List<String> links) {
+        this(toTmpId, links, true);
+    }
+
+    /**
+     * @param notarised see SharedItemCreateFlow
+     */
+    public SharedItemBulkCreateFlow(Party to, List<String> links, boolean notarised) {
+        super(to, null, checkLinks(links), notarised);
+    }
+
+    public SharedItemBulkCreateFlow(String toTmpId, List<String> links, boolean notarised) {
+        super(null, toTmpId, checkLinks(links), notarised);
+    }
+
+    private static List<String> checkLinks(List<String> links) {
+        if (links == null || links.isEmpty() || links.size() > MAX_LINKS) {
+            throw new IllegalArgumentException(String.format("between 1 and %d links must be provided", MAX_LINKS));
+        }
+
+        return links;
+    }
+}
@@ -0,0 +1,163 @@
+package com.template;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+
+import java.util.*;
+
+/**
+ * Shares many transactions with one party over a single session, e.g. to backfill a counterparty that has just
+ * joined the network.
+ *
+ * Transactions are sent in batches of BATCH_SIZE. For each batch, the counterparty is first sent the ids and answers
+ * with the ones it doesn't have, so only those are loaded and sent. Dependencies it already has, including those
+ * fetched for earlier transactions in the share, are not fetched again. See BulkShareFlowResponder.
+ *
+ * Pass ids oldest first, so that a transaction is shared before any transaction spending its states.
+ */
+@InitiatingFlow
+@StartableByRPC
+public class SharedItemBulkShareFlow extends FlowLogic<Integer> {
+    public static int BATCH_SIZE = 100;
+    private static final Step HANDSHAKE = new Step("Finding transactions the counterparty doesn't have.");
+    private static final Step SENDING = new Step("Sending transactions and serving the counterparty's dependency requests.");
+    private static final Step RECORDING = new Step("Waiting for the counterparty to record transactions.");
+
+    private final Party to;
+    private final List<SecureHash> txIds;
+    private final ProgressTracker progressTracker = new ProgressTracker(
+        HANDSHAKE,
+        SENDING,
+        RECORDING
+    );
+
+    public SharedItemBulkShareFlow(Party to, List<String> txIds) {
+        if (txIds == null || txIds.isEmpty()) {
+            throw new IllegalArgumentException("at least one transaction id must be provided");
+        }
+
+        this.to = to;
+        List<SecureHash> ids = new ArrayList<>(txIds.size());
+        for (String txId: new LinkedHashSet<>(txIds)) {
+            ids.add(SecureHash.parse(txId));
+        }
+
+        this.txIds = ImmutableList.copyOf(ids);
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    /**
+     * @return number of transactions the counterparty didn't have, and has now recorded
+     */
+    @Suspendable
+    @Override
+    public Integer call() throws FlowException {
+        FlowSession session = initiateFlow(to);
+        int shared = 0;
+        for (int start = 0; start < txIds.size(); start += BATCH_SIZE) {
+            List<SecureHash> batch = new ArrayList<>(txIds.subList(start, Math.min(start + BATCH_SIZE, txIds.size())));
+
+            progressTracker.setCurrentStep(HANDSHAKE);
+            List<SecureHash> missing = session.sendAndReceive(List.class, batch).unwrap(ids -> {
+                List<SecureHash> checked = new ArrayList<>(ids.size());
+                for (Object id: ids) {
+                    if (!batch.contains(id)) throw new FlowException("Counterparty asked for a transaction outside the batch: " + id);
+                    checked.add((SecureHash) id);
+                }
+
+                return checked;
+            });
+
+            if (missing.isEmpty()) continue;
+
+            progressTracker.setCurrentStep(SENDING);
+            List<SignedTransaction> txs = dependencyOrder(load(missing));
+            session.send(spendingFromBatch(txs));
+            for (SignedTransaction tx: txs) {
+                subFlow(new SendTransactionFlow(session, tx));
+            }
+
+            progressTracker.setCurrentStep(RECORDING);
+            int recorded = session.receive(Integer.class).unwrap(count -> count);
+            if (recorded != txs.size()) {
+                throw new FlowException(String.format("Counterparty recorded %d of %d transactions", recorded, txs.size()));
+            }
+
+            shared += recorded;
+        }
+
+        // an empty batch ends the share
+        session.send(new ArrayList<SecureHash>());
+        return shared;
+    }
+
+    private List<SignedTransaction> load(List<SecureHash> ids) {
+        List<SignedTransaction> txs = new ArrayList<>(ids.size());
+        for (SecureHash id: ids) {
+            SignedTransaction tx = getServiceHub().getValidatedTransactions().getTransaction(id);
+            if (tx == null) {
+                throw new IllegalArgumentException(String.format("transaction not found with id: %s", id));
+            }
+
+            txs.add(tx);
+        }
+
+        return txs;
+    }
+
+    /**
+     * @return positions of the transactions that spend from one before them in the list, before which the
+     *         counterparty records what it has received so far
+     */
+    static List<Integer> spendingFromBatch(List<SignedTransaction> txs) {
+        List<Integer> positions = new ArrayList<>();
+        Set<SecureHash> before = new HashSet<>();
+        for (int i = 0; i < txs.size(); i++) {
+            SignedTransaction tx = txs.get(i);
+            if (tx.getInputs().stream().anyMatch(input -> before.contains(input.getTxhash()))) positions.add(i);
+            before.add(tx.getId());
+        }
+
+        return positions;
+    }
+
+    /**
+     * @return the transactions, reordered only as needed to put each one after any other in the list it spends from
+     */
+    static List<SignedTransaction> dependencyOrder(List<SignedTransaction> txs) {
+        Map<SecureHash, SignedTransaction> byId = new LinkedHashMap<>();
+        for (SignedTransaction tx: txs) {
+            byId.put(tx.getId(), tx);
+        }
+
+        List<SignedTransaction> ordered = new ArrayList<>(txs.size());
+        Set<SecureHash> visited = new HashSet<>();
+        for (SignedTransaction tx: txs) {
+            visit(tx, byId, visited, ordered);
+        }
+
+        return ordered;
+    }
+
+    private static void visit(SignedTransaction tx, Map<SecureHash, SignedTransaction> byId, Set<SecureHash> visited, List<SignedTransaction> ordered) {
+        if (!visited.add(tx.getId())) return;
+
+        for (StateRef input: tx.getInputs()) {
+            SignedTransaction dependency = byId.get(input.getTxhash());
+            if (dependency != null) visit(dependency, byId, visited, ordered);
+        }
+
+        ordered.add(tx);
+    }
+}
@@ -2,77 +2,348 @@ package com.template;
 
 import com.google.common.collect.ImmutableList;
 import com.template.schema.SharedItemSchema;
-import com.template.schema.SharedItemSchemaV1;
-import net.corda.client.rpc.CordaRPCClient;
-import net.corda.client.rpc.CordaRPCClientConfiguration;
+import com.template.schema.SharedItemSchemaV2;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
 import net.corda.core.node.services.Vault;
 import net.corda.core.node.services.vault.Builder;
 import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.PageSpecification;
 import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
 import net.corda.core.utilities.NetworkHostAndPort;
 import org.apache.activemq.artemis.api.core.ActiveMQException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
 
+import java.io.Closeable;
 import java.lang.reflect.Field;
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * Demonstration of how to use the CordaRPCClient to connect to a Corda Node and
  * stream the contents of the node's vault.
  */
-public class SharedItemClient {
+public class SharedItemClient implements SharedItemReader, Closeable {
     private static final Logger logger = LoggerFactory.getLogger(SharedItemClient.class);
 
     private static void logState(StateAndRef<SharedItemState> state) {
         logger.info("{}", state.getState().getData());
     }
 
+    public static final int DEFAULT_PAGE_SIZE = 200;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_LOOKUP_LINKS = 1000;
+    public static final int MAX_STATS_GROUPS = 50;
+
+    // page by state ref so that consecutive pages don't overlap
+    private static final Sort.SortColumn TXN_ID_ORDER = new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC);
+    private static final Sort.SortColumn INDEX_ORDER = new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC);
+    private static final Sort STABLE_ORDER = new Sort(ImmutableList.of(TXN_ID_ORDER, INDEX_ORDER));
+
     private final CordaRPCOps rpcOps;
+    private final QueryCoalescer queries;
+    private PublishSubject<Vault.Update<SharedItemState>> updates;
+    private Subscription feed;
+    private Subscription invalidation;
+    private boolean closed;
 
+    /**
+     * Runs every query on the node, and opens no vault feed until getUpdates is called.
+     */
     public SharedItemClient (CordaRPCOps rpcOps) {
         this.rpcOps = rpcOps;
+        this.queries = QueryCoalescer.disabled();
+    }
+
+    /**
+     * Identical queries made at the same time share one vault query and its result. With a cacheTtl, results are
+     * also kept for that long. Either way, a query never shares a result obtained before the latest vault update,
+     * which this client watches the vault feed for until it is closed.
+     *
+     * @param cacheTtl how long to keep query results, or null not to keep them
+     */
+    public SharedItemClient (CordaRPCOps rpcOps, Duration cacheTtl) {
+        this.rpcOps = rpcOps;
+        this.queries = new QueryCoalescer(cacheTtl);
+        // any vault update may change any result, so start afresh on each one
+        this.invalidation = getUpdates().subscribe(update -> queries.invalidate(), e -> {
+            logger.warn("Vault updates stopped, no longer sharing query results", e);
+            queries.stopSharing();
+        });
+    }
+
+    /**
+     * @return vault updates to unconsumed states, from a single vault feed shared by every subscriber. If the feed
+     *         fails, its subscribers are sent the error and the next call opens a new feed.
+     */
+    public synchronized Observable<Vault.Update<SharedItemState>> getUpdates() {
+        if (closed) throw new IllegalStateException("client is closed");
+
+        if (updates == null) {
+            PublishSubject<Vault.Update<SharedItemState>> subject = PublishSubject.create();
+            feed = rpcOps.vaultTrackBy(
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                    new PageSpecification(1, 1),
+                    new Sort(ImmutableList.of()),
+                    SharedItemState.class)
+                    .getUpdates()
+                    .subscribe(subject::onNext, error -> {
+                        synchronized (this) {
+                            if (updates == subject) updates = null;
+                        }
+
+                        subject.onError(error);
+                    });
+            updates = subject;
+        }
+
+        return updates;
+    }
+
+    /**
+     * Unsubscribes from the vault feed, which completes the observables returned by getUpdates.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+
+        closed = true;
+        if (invalidation != null) {
+            invalidation.unsubscribe();
+            // vault changes are no longer seen
+            queries.stopSharing();
+        }
+
+        if (updates != null) {
+            feed.unsubscribe();
+            updates.onCompleted();
+            updates = null;
+        }
+    }
+
+    /**
+     * @return vault queries run, queries that shared another caller's result, and results served from the cache
+     */
+    public Map<String, Long> getQueryCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("queries", queries.getQueries());
+        counts.put("coalesced", queries.getCoalesced());
+        counts.put("cacheHits", queries.getCacheHits());
+        return counts;
     }
 
     /**
      * @return state tips
      */
     public List<StateAndRef<SharedItemState>> list() {
-        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
-        return rpcOps
-                .vaultQueryByCriteria(criteria, SharedItemState.class)
-                .getStates();
+        return listWithFilter(new SharedItemFilter());
     }
 
+    /**
+     * @return parties that share or have been shared items, found with a GROUP BY on share_from and share_to
+     */
     public List<Party> listParties() {
-        Set<Party> parties = new HashSet<>();
-        list().forEach(item -> {
-            SharedItemState state = item.getState().getData();
-            parties.add(state.getFrom());
-            if (state.getTo() != null) {
-                parties.add(state.getTo());
+        List<Party> parties = new ArrayList<>();
+        for (String name: listPartyNames()) {
+            Party party = findParty(name);
+            if (party != null) parties.add(party);
+        }
+
+        return ImmutableList.copyOf(parties);
+    }
+
+    /**
+     * @return X.500 names of parties that share or have been shared items
+     */
+    public Set<String> listPartyNames() {
+        Set<String> names = new TreeSet<>();
+        names.addAll(distinct(new SharedItemFilter(), SharedItemSchemaV2.from));
+        names.addAll(distinct(new SharedItemFilter(), SharedItemSchemaV2.to));
+        return names;
+    }
+
+    /**
+     * @return number of items each party shares or has been shared, by X.500 name, from one GROUP BY on share_from
+     *         and one on share_to
+     */
+    public Map<String, Long> countByParty() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Field column: ImmutableList.of(SharedItemSchemaV2.from, SharedItemSchemaV2.to)) {
+            for (ItemStats group: groupStats(new SharedItemFilter(), column, 0)) {
+                if (group.getGroup() != null) counts.merge(group.getGroup(), group.getCount(), Long::sum);
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * @return the party with this X.500 name, as known to the network map or as recorded in an item, or null if
+     * there is neither
+     */
+    public Party findParty(String name) {
+        CordaX500Name x500Name = CordaX500Name.parse(name);
+        Party party = rpcOps.wellKnownPartyFromX500Name(x500Name);
+        if (party != null) return party;
+
+        List<StateAndRef<SharedItemState>> from = page(new SharedItemFilter().setFrom(x500Name), 1, 1).getItems();
+        if (!from.isEmpty()) return from.get(0).getState().getData().getFrom();
+
+        List<StateAndRef<SharedItemState>> to = page(new SharedItemFilter().setTo(x500Name), 1, 1).getItems();
+        if (!to.isEmpty()) return to.get(0).getState().getData().getTo();
+
+        return null;
+    }
+
+    /**
+     * @return number of state tips matching the filter, counted by the node's database
+     */
+    public long count(SharedItemFilter filter) {
+        Long count = aggregate(filter, Builder.count(SharedItemSchemaV2.linearId));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @param column a SharedItemSchemaV2 string column
+     * @return distinct non-null values of the column among state tips matching the filter
+     */
+    public Set<String> distinct(SharedItemFilter filter, Field column) {
+        Set<String> values = new TreeSet<>();
+        for (ItemStats group: groupStats(filter, column, 0)) {
+            if (group.getGroup() != null) values.add(group.getGroup());
+        }
+
+        return values;
+    }
+
+    /**
+     * Counts and first and last timestamps of the state tips matching the filter, computed by the node's database
+     * with a single GROUP BY, so only one row per group is returned over RPC.
+     *
+     * @param groupBy SharedItemSchemaV2.from, to or toTmpId, or null for a single group of all matching items
+     * @return one entry per group, sorted by group, with the group of items without a value last
+     */
+    public List<ItemStats> stats(SharedItemFilter filter, Field groupBy) {
+        // one more than allowed, to tell whether there are too many
+        List<ItemStats> stats = groupStats(filter, groupBy, MAX_STATS_GROUPS + 1);
+        if (stats.size() > MAX_STATS_GROUPS) {
+            throw new IllegalArgumentException(String.format("more than %d groups match", MAX_STATS_GROUPS));
+        }
+
+        return stats;
+    }
+
+    /**
+     * @param limit maximum number of groups, or 0 for all of them
+     */
+    private List<ItemStats> groupStats(SharedItemFilter filter, Field groupBy, int limit) {
+        return queries.get(Arrays.asList("stats", filter.copy(), groupBy, limit), () -> {
+            String column = groupBy == null ? null : groupBy.getName();
+            try (FlowHandle<List<ItemStats>> handle = rpcOps.startFlowDynamic(SharedItemStatsFlow.class, filter.copy(), column, limit)) {
+                return handle.getReturnValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while aggregating items", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IllegalStateException("failed to aggregate items", e.getCause());
             }
         });
+    }
 
-        return ImmutableList.copyOf(parties);
+    private Long aggregate(SharedItemFilter filter, CriteriaExpression expression) {
+        List<Object> results = queries.get(Arrays.asList("aggregate", filter.copy(), expression), () -> rpcOps
+                .vaultQueryByCriteria(filter.toCriteria().and(new QueryCriteria.VaultCustomQueryCriteria(expression)), SharedItemState.class)
+                .getOtherResults());
+
+        return results.isEmpty() || results.get(0) == null ? null : ((Number) results.get(0)).longValue();
+    }
+
+    /**
+     * @param filter conditions to match, evaluated by the node's database
+     * @return state tips matching the filter, collected from all pages
+     */
+    public List<StateAndRef<SharedItemState>> listWithFilter(SharedItemFilter filter) {
+        List<StateAndRef<SharedItemState>> states = new ArrayList<>();
+        forEachPage(filter, DEFAULT_PAGE_SIZE, states::addAll);
+        return states;
+    }
+
+    /**
+     * @param filter conditions to match, evaluated by the node's database
+     * @param pageNumber 1-based page number
+     * @param pageSize maximum number of states per page, at most MAX_PAGE_SIZE
+     * @return a single page of state tips matching the filter
+     */
+    public ResultPage<StateAndRef<SharedItemState>> page(SharedItemFilter filter, int pageNumber, int pageSize) {
+        if (pageNumber < 1) {
+            throw new IllegalArgumentException(String.format("page number must be at least 1, got %d", pageNumber));
+        }
+
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("page size must be between 1 and %d, got %d", MAX_PAGE_SIZE, pageSize));
+        }
+
+        return queries.get(Arrays.asList("page", filter.copy(), pageNumber, pageSize), () -> {
+            Vault.Page<SharedItemState> page = rpcOps.vaultQueryBy(
+                    filter.toCriteria(),
+                    new PageSpecification(pageNumber, pageSize),
+                    sortFor(filter),
+                    SharedItemState.class);
+
+            return new ResultPage<>(page.getStates(), pageNumber, pageSize, page.getTotalStatesAvailable());
+        });
+    }
+
+    /**
+     * @return the filter's timestamp order, if any, with ties broken by state ref so pages stay stable
+     */
+    private static Sort sortFor(SharedItemFilter filter) {
+        if (filter.getTimestampOrder() == null) return STABLE_ORDER;
+
+        SortAttribute timestamp = new SortAttribute.Custom(SharedItemSchemaV2.PersistentSharedItem.class, "timestamp");
+        return new Sort(ImmutableList.of(
+                new Sort.SortColumn(timestamp, filter.getTimestampOrder()),
+                TXN_ID_ORDER,
+                INDEX_ORDER
+        ));
     }
 
-    public List<StateAndRef<SharedItemState>> listWithFilter(Predicate<SharedItemState> filter) {
-        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
-        return rpcOps
-                .vaultQueryByCriteria(criteria, SharedItemState.class)
-                .getStates()
-                .stream()
-                .filter(state -> filter.test(state.getState().getData()))
-                .collect(Collectors.toList());
+    /**
+     * Walks the matching state tips one page at a time, so only one page is held in memory.
+     * States consumed while the walk is in progress may shift later pages.
+     *
+     * @param filter conditions to match, evaluated by the node's database
+     * @param pageSize maximum number of states per page, at most MAX_PAGE_SIZE
+     * @param consumer called with each non-empty page, in order
+     */
+    public void forEachPage(SharedItemFilter filter, int pageSize, Consumer<List<StateAndRef<SharedItemState>>> consumer) {
+        for (int pageNumber = 1; ; pageNumber++) {
+            ResultPage<StateAndRef<SharedItemState>> page = page(filter, pageNumber, pageSize);
+            if (page.getItems().isEmpty()) return;
+
+            consumer.accept(page.getItems());
+            if (!page.hasNext()) return;
+        }
     }
 
 //    public List<StateAndRef<SharedItemState>> listWithMatch(SharedItemState state) {
@@ -127,43 +398,63 @@ public class SharedItemClient {
      * @return state tips with unresolved identities
      */
     public List<StateAndRef<SharedItemState>> getSharedItemsWithUnresolvedTo(String partyTmpId) {
-        CriteriaExpression toTmpIdCriteria = Builder.equal(SharedItemSchemaV1.toTmpId, partyTmpId);
-        CriteriaExpression toCriteria = Builder.isNull(SharedItemSchemaV1.to);
-        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED)
-                .and(new QueryCriteria.VaultCustomQueryCriteria(toCriteria));
+        return listWithFilter(new SharedItemFilter()
+                .setUnresolved(true)
+                .setToTmpId(partyTmpId));
+    }
 
-        if (partyTmpId != null) {
-            criteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(toTmpIdCriteria));
+    /**
+     * Looks up many links at once, with indexed queries on their hashes.
+     *
+     * @return state tips for each link, in the order given, with an empty list for links no item has
+     */
+    public Map<String, List<StateAndRef<SharedItemState>>> getStatesWithLinks(Collection<String> links) {
+        if (links.isEmpty() || links.size() > MAX_LOOKUP_LINKS) {
+            throw new IllegalArgumentException(String.format("between 1 and %d links must be provided, got %d", MAX_LOOKUP_LINKS, links.size()));
         }
 
-        return rpcOps
-                .vaultQueryByCriteria(criteria, SharedItemState.class)
-                .getStates();
-    }
+        Map<String, List<StateAndRef<SharedItemState>>> found = new LinkedHashMap<>();
+        for (String link: links) {
+            found.put(link, new ArrayList<>());
+        }
 
-    public List<StateAndRef<SharedItemState>> getStatesWithLink(String link) {
-        CriteriaExpression linkCriteria = Builder.equal(SharedItemSchemaV1.link, link);
-        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED)
-                .and(new QueryCriteria.VaultCustomQueryCriteria(linkCriteria));
+        forEachPage(new SharedItemFilter().setLinks(links), MAX_PAGE_SIZE, page -> page.forEach(item -> {
+            List<StateAndRef<SharedItemState>> items = found.get(item.getState().getData().getLink());
+            // null only on a hash collision
+            if (items != null) items.add(item);
+        }));
 
-        return rpcOps
-                .vaultQueryByCriteria(criteria, SharedItemState.class)
-                .getStates();
+        return found;
+    }
 
+    public List<StateAndRef<SharedItemState>> getStatesWithLink(String link) {
+        return listWithFilter(new SharedItemFilter().setLink(link));
     }
 
+    /**
+     * Arguments: node address, then optionally RPC username and password.
+     *
+     * Credentials default to the rpc.username and rpc.password system properties. rpc.connections sets the number
+     * of RPC connections to spread calls over, by default the number of cores.
+     */
     public static void main(String[] args) throws ActiveMQException, InterruptedException, ExecutionException {
-        if (args.length != 1) {
-            throw new IllegalArgumentException("Usage: TemplateClient <node address>");
+        if (args.length != 1 && args.length != 3) {
+            throw new IllegalArgumentException("Usage: SharedItemClient <node address> [username password]");
         }
 
         final NetworkHostAndPort nodeAddress = NetworkHostAndPort.parse(args[0]);
-        final CordaRPCClient client = new CordaRPCClient(nodeAddress, CordaRPCClientConfiguration.DEFAULT);
+        final String username = args.length == 3 ? args[1] : System.getProperty("rpc.username");
+        final String password = args.length == 3 ? args[2] : System.getProperty("rpc.password");
+        if (username == null || password == null) {
+            throw new IllegalArgumentException("RPC credentials must be passed as arguments, or as the rpc.username and rpc.password system properties");
+        }
 
-        // Can be amended in the Main file.
-        final CordaRPCOps proxy = client.start("user1", "test").getProxy();
-        final SharedItemClient sClient = new SharedItemClient(proxy);
-        sClient.getStatesWithLink("abc");
+        final int connections = Integer.getInteger("rpc.connections", Runtime.getRuntime().availableProcessors());
+        try (RpcConnectionPool pool = new RpcConnectionPool(nodeAddress, username, password, connections, connections * 16)) {
+            try (SharedItemClient sClient = new SharedItemClient(pool.getProxy())) {
+                sClient.getStatesWithLink("abc");
+            }
+        }
 //        // Grab all existing TemplateStates and all future TemplateStates.
 //        final DataFeed<Vault.Page<SharedItemState>, Vault.Update<SharedItemState>> dataFeed = proxy.vaultTrack(SharedItemState.class);
 //
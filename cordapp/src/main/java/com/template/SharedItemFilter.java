@@ -0,0 +1,292 @@
+package com.template;
+
+import com.google.common.collect.ImmutableSet;
+import com.template.schema.SharedItemSchemaV2;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Typed filter over unconsumed SharedItemStates. Every condition set here is translated to a
+ * VaultCustomQueryCriteria on the SharedItemSchemaV2 columns, so filtering happens in the node's database
+ * rather than in memory. toSql expresses the same conditions as SQL, for queries the vault can't express.
+ *
+ * Parties are matched on their X.500 name, which is how they are stored in the schema, so no identity lookup
+ * is needed to build the query. Links are matched on their hash (see SharedItemSchemaV2.hashLink), which is indexed.
+ */
+@CordaSerializable
+public class SharedItemFilter {
+    private String link;
+    private Set<String> links;
+    private String from;
+    private String to;
+    private String toTmpId;
+    private boolean unresolved;
+    private Long timestamp;
+    private Long since;
+    private Long until;
+    private Sort.Direction timestampOrder;
+
+    public String getLink() { return link; }
+    public Set<String> getLinks() { return links; }
+    public String getFrom() { return from; }
+    public String getTo() { return to; }
+    public String getToTmpId() { return toTmpId; }
+    public boolean isUnresolved() { return unresolved; }
+    public Long getTimestamp() { return timestamp; }
+    public Long getSince() { return since; }
+    public Long getUntil() { return until; }
+    public Sort.Direction getTimestampOrder() { return timestampOrder; }
+
+    public SharedItemFilter setLink(String link) {
+        this.link = link;
+        return this;
+    }
+
+    /**
+     * @param links only match items with one of these links
+     */
+    public SharedItemFilter setLinks(Collection<String> links) {
+        this.links = links == null ? null : ImmutableSet.copyOf(links);
+        return this;
+    }
+
+    public SharedItemFilter setFrom(CordaX500Name from) {
+        this.from = from == null ? null : from.toString();
+        return this;
+    }
+
+    public SharedItemFilter setTo(CordaX500Name to) {
+        this.to = to == null ? null : to.toString();
+        return this;
+    }
+
+    public SharedItemFilter setToTmpId(String toTmpId) {
+        this.toTmpId = toTmpId;
+        return this;
+    }
+
+    /**
+     * @param unresolved only match items whose 'to' has not been resolved to a party yet
+     */
+    public SharedItemFilter setUnresolved(boolean unresolved) {
+        this.unresolved = unresolved;
+        return this;
+    }
+
+    public SharedItemFilter setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    /**
+     * @param since inclusive lower bound on the item timestamp, in epoch millis
+     */
+    public SharedItemFilter setSince(Long since) {
+        this.since = since;
+        return this;
+    }
+
+    /**
+     * @param until inclusive upper bound on the item timestamp, in epoch millis
+     */
+    public SharedItemFilter setUntil(Long until) {
+        this.until = until;
+        return this;
+    }
+
+    /**
+     * @param timestampOrder order matches by timestamp in this direction, or by state ref if null
+     */
+    public SharedItemFilter setTimestampOrder(Sort.Direction timestampOrder) {
+        this.timestampOrder = timestampOrder;
+        return this;
+    }
+
+    public SharedItemFilter copy() {
+        SharedItemFilter copy = new SharedItemFilter();
+        copy.link = link;
+        copy.links = links;
+        copy.from = from;
+        copy.to = to;
+        copy.toTmpId = toTmpId;
+        copy.unresolved = unresolved;
+        copy.timestamp = timestamp;
+        copy.since = since;
+        copy.until = until;
+        copy.timestampOrder = timestampOrder;
+        return copy;
+    }
+
+    public boolean isEmpty() {
+        return link == null && links == null && from == null && to == null && toTmpId == null && !unresolved
+                && timestamp == null && since == null && until == null;
+    }
+
+    /**
+     * @return criteria matching unconsumed states that satisfy every condition set on this filter
+     */
+    public QueryCriteria toCriteria() {
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        if (link != null) {
+            criteria = and(criteria, Builder.equal(SharedItemSchemaV2.linkHash, SharedItemSchemaV2.hashLink(link)));
+        }
+
+        if (links != null) {
+            List<String> hashes = links.stream().map(SharedItemSchemaV2::hashLink).collect(Collectors.toList());
+            criteria = and(criteria, Builder.in(SharedItemSchemaV2.linkHash, hashes));
+        }
+
+        if (from != null) {
+            criteria = and(criteria, Builder.equal(SharedItemSchemaV2.from, from));
+        }
+
+        if (to != null) {
+            criteria = and(criteria, Builder.equal(SharedItemSchemaV2.to, to));
+        } else if (unresolved) {
+            criteria = and(criteria, Builder.isNull(SharedItemSchemaV2.to));
+        }
+
+        if (toTmpId != null) {
+            criteria = and(criteria, Builder.equal(SharedItemSchemaV2.toTmpId, toTmpId));
+        }
+
+        if (timestamp != null) {
+            criteria = and(criteria, Builder.equal(SharedItemSchemaV2.timestamp, timestamp));
+        }
+
+        if (since != null && until != null) {
+            criteria = and(criteria, Builder.between(SharedItemSchemaV2.timestamp, since, until));
+        } else if (since != null) {
+            criteria = and(criteria, Builder.greaterThanOrEqual(SharedItemSchemaV2.timestamp, since));
+        } else if (until != null) {
+            criteria = and(criteria, Builder.lessThanOrEqual(SharedItemSchemaV2.timestamp, until));
+        }
+
+        return criteria;
+    }
+
+    /**
+     * @param alias alias of shared_item_states_v2 in the query
+     * @param parameters receives the value of each '?' in the returned conditions, in order
+     * @return the conditions of toCriteria on shared_item_states_v2 columns, joined with AND, or "1 = 1" if none
+     *         are set. Whether states are unconsumed is left to the caller, which has to join vault_states for it.
+     */
+    public String toSql(String alias, List<Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+        if (link != null) {
+            conditions.add(column(alias, SharedItemSchemaV2.linkHash) + " = ?");
+            parameters.add(SharedItemSchemaV2.hashLink(link));
+        }
+
+        if (links != null) {
+            List<String> placeholders = new ArrayList<>();
+            for (String link: links) {
+                placeholders.add("?");
+                parameters.add(SharedItemSchemaV2.hashLink(link));
+            }
+
+            // an empty IN list isn't valid SQL, and matches nothing
+            conditions.add(links.isEmpty() ? "1 = 0" : column(alias, SharedItemSchemaV2.linkHash) + " IN (" + String.join(", ", placeholders) + ")");
+        }
+
+        if (from != null) {
+            conditions.add(column(alias, SharedItemSchemaV2.from) + " = ?");
+            parameters.add(from);
+        }
+
+        if (to != null) {
+            conditions.add(column(alias, SharedItemSchemaV2.to) + " = ?");
+            parameters.add(to);
+        } else if (unresolved) {
+            conditions.add(column(alias, SharedItemSchemaV2.to) + " IS NULL");
+        }
+
+        if (toTmpId != null) {
+            conditions.add(column(alias, SharedItemSchemaV2.toTmpId) + " = ?");
+            parameters.add(toTmpId);
+        }
+
+        if (timestamp != null) {
+            conditions.add(column(alias, SharedItemSchemaV2.timestamp) + " = ?");
+            parameters.add(timestamp);
+        }
+
+        if (since != null) {
+            conditions.add(column(alias, SharedItemSchemaV2.timestamp) + " >= ?");
+            parameters.add(since);
+        }
+
+        if (until != null) {
+            conditions.add(column(alias, SharedItemSchemaV2.timestamp) + " <= ?");
+            parameters.add(until);
+        }
+
+        return conditions.isEmpty() ? "1 = 1" : String.join(" AND ", conditions);
+    }
+
+    private static String column(String alias, Field field) {
+        return alias + "." + SharedItemSchemaV2.columnName(field);
+    }
+
+    /**
+     * Evaluates the filter in memory, for states that don't come from a vault query, such as vault updates.
+     */
+    public boolean matches(SharedItemState state) {
+        if (link != null && !link.equals(state.getLink())) return false;
+        if (links != null && !links.contains(state.getLink())) return false;
+        if (from != null && !from.equals(state.getFrom().getName().toString())) return false;
+        if (to != null && (state.getTo() == null || !to.equals(state.getTo().getName().toString()))) return false;
+        if (unresolved && state.getTo() != null) return false;
+        if (toTmpId != null && !toTmpId.equals(state.getToTmpId())) return false;
+        if (timestamp != null && timestamp != state.getTimestamp()) return false;
+        if (since != null && state.getTimestamp() < since) return false;
+        if (until != null && state.getTimestamp() > until) return false;
+        return true;
+    }
+
+    private static QueryCriteria and(QueryCriteria criteria, CriteriaExpression expression) {
+        return criteria.and(new QueryCriteria.VaultCustomQueryCriteria(expression));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SharedItemFilter that = (SharedItemFilter) o;
+        return unresolved == that.unresolved
+                && Objects.equals(link, that.link)
+                && Objects.equals(links, that.links)
+                && Objects.equals(from, that.from)
+                && Objects.equals(to, that.to)
+                && Objects.equals(toTmpId, that.toTmpId)
+                && Objects.equals(timestamp, that.timestamp)
+                && Objects.equals(since, that.since)
+                && Objects.equals(until, that.until)
+                && timestampOrder == that.timestampOrder;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(link, links, from, to, toTmpId, unresolved, timestamp, since, until, timestampOrder);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(link=%s, links=%s, from=%s, to=%s, toTmpId=%s, unresolved=%s, timestamp=%s, since=%s, until=%s, timestampOrder=%s)",
+                getClass().getSimpleName(), link, links, from, to, toTmpId, unresolved, timestamp, since, until, timestampOrder);
+    }
+}
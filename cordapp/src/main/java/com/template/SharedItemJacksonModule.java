@@ -0,0 +1,117 @@
+package com.template;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+
+import java.io.IOException;
+
+/**
+ * Streaming serializers for the types the web API lists in bulk, which write the same JSON as Jackson's bean
+ * serialization with the corda-jackson modules, without introspecting each object.
+ *
+ * Parties are written as their X.500 names, as corda-jackson's PartySerializer does. Values of other types, such
+ * as a state's linearId or a transaction state's constraint, are handed back to the mapper.
+ */
+public class SharedItemJacksonModule extends SimpleModule {
+    public SharedItemJacksonModule() {
+        super("SharedItemJacksonModule");
+        addSerializer(SharedItemState.class, new SharedItemStateSerializer());
+        addSerializer(SharedItemView.class, new SharedItemViewSerializer());
+        addSerializer(StateAndRef.class, new StateAndRefSerializer());
+    }
+
+    /**
+     * Registers this module and the afterburner module, which speeds up the bean serialization of other types
+     * by generating accessors for their properties instead of calling them by reflection.
+     */
+    public static ObjectMapper register(ObjectMapper mapper) {
+        return mapper
+                .registerModule(new AfterburnerModule())
+                .registerModule(new SharedItemJacksonModule());
+    }
+
+    private static void writeParty(JsonGenerator gen, String fieldName, Party party) throws IOException {
+        if (party == null) {
+            gen.writeNullField(fieldName);
+        } else {
+            gen.writeStringField(fieldName, party.getName().toString());
+        }
+    }
+
+    static class SharedItemStateSerializer extends JsonSerializer<SharedItemState> {
+        @Override
+        public void serialize(SharedItemState state, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            writeParty(gen, "from", state.getFrom());
+            writeParty(gen, "to", state.getTo());
+            gen.writeStringField("toTmpId", state.getToTmpId());
+            gen.writeNumberField("timestamp", state.getTimestamp());
+            gen.writeStringField("link", state.getLink());
+            provider.defaultSerializeField("linearId", state.getLinearId(), gen);
+            gen.writeArrayFieldStart("participants");
+            for (AbstractParty participant: state.getParticipants()) {
+                if (participant instanceof Party) {
+                    gen.writeString(((Party) participant).getName().toString());
+                } else {
+                    provider.defaultSerializeValue(participant, gen);
+                }
+            }
+
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+    }
+
+    static class SharedItemViewSerializer extends JsonSerializer<SharedItemView> {
+        @Override
+        public void serialize(SharedItemView view, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("link", view.getLink());
+            gen.writeStringField("from", view.getFrom());
+            gen.writeStringField("to", view.getTo());
+            gen.writeStringField("toTmpId", view.getToTmpId());
+            gen.writeNumberField("timestamp", view.getTimestamp());
+            gen.writeStringField("linearId", view.getLinearId());
+            gen.writeStringField("ref", view.getRef());
+            gen.writeEndObject();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    static class StateAndRefSerializer extends JsonSerializer<StateAndRef> {
+        @Override
+        public void serialize(StateAndRef stateAndRef, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            TransactionState<? extends ContractState> state = stateAndRef.getState();
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("state");
+            provider.defaultSerializeField("data", state.getData(), gen);
+            gen.writeStringField("contract", state.getContract());
+            writeParty(gen, "notary", state.getNotary());
+            if (state.getEncumbrance() == null) {
+                gen.writeNullField("encumbrance");
+            } else {
+                gen.writeNumberField("encumbrance", state.getEncumbrance());
+            }
+
+            provider.defaultSerializeField("constraint", state.getConstraint(), gen);
+            gen.writeEndObject();
+
+            StateRef ref = stateAndRef.getRef();
+            gen.writeObjectFieldStart("ref");
+            gen.writeStringField("txhash", ref.getTxhash().toString());
+            gen.writeNumberField("index", ref.getIndex());
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+    }
+}
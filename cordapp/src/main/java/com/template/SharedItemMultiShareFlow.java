@@ -0,0 +1,95 @@
+package com.template;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.ProgressTracker.Step;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shares a transaction with many parties in one flow.
+ *
+ * The transaction is looked up once and sent to every recipient before waiting on any of them, so recipients
+ * resolve and record it in parallel and the whole fan-out takes about one round trip. Each session's dependency
+ * requests are then served in turn, and a recipient that fails doesn't stop the others from receiving it.
+ */
+@InitiatingFlow
+@StartableByRPC
+public class SharedItemMultiShareFlow extends FlowLogic<List<ShareResult>> {
+    public static int MAX_RECIPIENTS = 100;
+    private static final Step LOOKUP_TX = new Step("Lookup tx by id.");
+    private static final Step SENDING = new Step("Sending the transaction to every recipient.");
+    private static final Step SERVING = new Step("Serving recipients' dependency requests.");
+
+    private final List<Party> to;
+    private final String txId;
+    private final ProgressTracker progressTracker = new ProgressTracker(
+        LOOKUP_TX,
+        SENDING,
+        SERVING
+    );
+
+    public SharedItemMultiShareFlow(List<Party> to, String txId) {
+        if (to == null || to.isEmpty() || to.size() > MAX_RECIPIENTS) {
+            throw new IllegalArgumentException(String.format("between 1 and %d recipients must be provided", MAX_RECIPIENTS));
+        }
+
+        this.to = ImmutableList.copyOf(to);
+        this.txId = txId;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Suspendable
+    @Override
+    public List<ShareResult> call() throws FlowException {
+        progressTracker.setCurrentStep(LOOKUP_TX);
+        SignedTransaction tx = getServiceHub().getValidatedTransactions().getTransaction(SecureHash.parse(txId));
+        if (tx == null) {
+            throw new IllegalArgumentException(String.format("transaction not found with id: %s", txId));
+        }
+
+        Set<Party> recipients = new LinkedHashSet<>(to);
+        recipients.remove(getOurIdentity());
+
+        progressTracker.setCurrentStep(SENDING);
+        List<FlowSession> sessions = new ArrayList<>(recipients.size());
+        for (Party party: recipients) {
+            FlowSession session = initiateFlow(party);
+            session.send(tx);
+            sessions.add(session);
+        }
+
+        progressTracker.setCurrentStep(SERVING);
+        List<ShareResult> results = new ArrayList<>(sessions.size());
+        for (FlowSession session: sessions) {
+            results.add(serve(session, tx));
+        }
+
+        return results;
+    }
+
+    @Suspendable
+    private ShareResult serve(FlowSession session, SignedTransaction tx) {
+        try {
+            subFlow(new SentTransactionVendingFlow(session, tx));
+            boolean recorded = session.receive(Boolean.class).unwrap(data -> data);
+            return new ShareResult(session.getCounterparty(), recorded, recorded ? null : "transaction was not recorded");
+        } catch (FlowException | UnexpectedFlowEndException e) {
+            // the recipient threw, or its flow ended without recording the transaction
+            getLogger().warn("Failed to share {} with {}", txId, session.getCounterparty(), e);
+            return new ShareResult(session.getCounterparty(), false, e.getMessage());
+        }
+    }
+}
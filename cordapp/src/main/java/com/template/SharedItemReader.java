@@ -0,0 +1,58 @@
+package com.template;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import rx.Observable;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Read access to unconsumed SharedItemStates, as used by the web API. SharedItemClient queries the node's vault for
+ * each read, while SharedItemReplica answers from a copy of the vault held in the webserver.
+ */
+public interface SharedItemReader {
+    /**
+     * @param pageNumber 1-based page number
+     * @param pageSize maximum number of states per page, at most SharedItemClient.MAX_PAGE_SIZE
+     * @return a single page of state tips matching the filter
+     */
+    ResultPage<StateAndRef<SharedItemState>> page(SharedItemFilter filter, int pageNumber, int pageSize);
+
+    /**
+     * @param consumer called with each non-empty page of state tips matching the filter, in order
+     */
+    void forEachPage(SharedItemFilter filter, int pageSize, Consumer<List<StateAndRef<SharedItemState>>> consumer);
+
+    /**
+     * @return every given link, in order, mapped to the state tips with that link
+     */
+    Map<String, List<StateAndRef<SharedItemState>>> getStatesWithLinks(Collection<String> links);
+
+    long count(SharedItemFilter filter);
+
+    /**
+     * @param groupBy SharedItemSchemaV2.from, to or toTmpId, or null for a single group of all matching items
+     * @return one entry per group, sorted by group, with the group of items without a value last
+     */
+    List<ItemStats> stats(SharedItemFilter filter, Field groupBy);
+
+    /**
+     * @return number of items each party shares or has been shared, by X.500 name, counted with grouped queries
+     */
+    Map<String, Long> countByParty();
+
+    /**
+     * @return the party with this X.500 name, or null if it is unknown
+     */
+    Party findParty(String name);
+
+    /**
+     * @return vault updates to unconsumed states, each emitted once reads reflect it
+     */
+    Observable<Vault.Update<SharedItemState>> getUpdates();
+}
@@ -0,0 +1,575 @@
+package com.template;
+
+import com.google.common.collect.ImmutableList;
+import com.template.schema.SharedItemSchemaV2;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Sort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Copy of the node's unconsumed SharedItemStates held in the webserver, so that reads served from it don't reach
+ * the node. It subscribes to the vault feed, pages through the vault to seed itself, then applies each vault update.
+ *
+ * Items are indexed by link, from, to (unresolved items under null), toTmpId and timestamp. A read scans the smallest
+ * index entry its filter selects and evaluates the rest of the filter in memory, so results are the same as the
+ * node's. Reads whose filter an index entry answers exactly, including unfiltered ones, only visit the states on the
+ * page they return.
+ *
+ * Seeding runs in the background, so it doesn't hold up startup. A walk of the vault is only repeated if a state it
+ * had already passed is consumed during it, as the later pages it fetched may then have skipped a state; up to
+ * MAX_SEED_WALKS walks are made, SEED_BACKOFF_MILLIS apart and doubling. If they all fail, or the vault feed fails,
+ * the next read after SEED_RETRY_MILLIS starts seeding again.
+ *
+ * Each webserver holds its own replica, so read capacity grows with the number of webservers, and reads lag the
+ * node by the time a vault update takes to arrive. Until the replica is seeded, reads go to the node instead.
+ */
+public class SharedItemReplica implements SharedItemReader {
+    private static final Logger logger = LoggerFactory.getLogger(SharedItemReplica.class);
+    // walks of the vault to make before giving up until the next retry
+    public static int MAX_SEED_WALKS = 5;
+    // wait before the second walk, doubled before each later one
+    public static long SEED_BACKOFF_MILLIS = 500;
+    // wait after seeding gives up or the vault feed fails before a read starts seeding again
+    public static long SEED_RETRY_MILLIS = 60_000;
+
+    private static final Executor seeders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "read-replica-seed");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the client's order, so pages are the same whichever serves them
+    private static final Comparator<StateRef> REF_ORDER = Comparator
+            .comparing((StateRef ref) -> ref.getTxhash().toString())
+            .thenComparingInt(StateRef::getIndex);
+    private static final Comparator<StateAndRef<SharedItemState>> TIMESTAMP_ORDER =
+            Comparator.comparingLong(state -> state.getState().getData().getTimestamp());
+
+    private final SharedItemReader client;
+    private final Executor seeder;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<StateRef, StateAndRef<SharedItemState>> states = new TreeMap<>(REF_ORDER);
+    private final Map<String, NavigableSet<StateRef>> byLink = new HashMap<>();
+    private final Map<String, NavigableSet<StateRef>> byFrom = new HashMap<>();
+    private final Map<String, NavigableSet<StateRef>> byTo = new HashMap<>();
+    private final Map<String, NavigableSet<StateRef>> byToTmpId = new HashMap<>();
+    private final NavigableMap<Long, NavigableSet<StateRef>> byTimestamp = new TreeMap<>();
+    // while a walk of the vault is in progress: states consumed since it started, the last state it added, and
+    // whether a consumed state it had passed may have shifted its later pages
+    private Set<StateRef> consumedWhileSeeding;
+    private StateRef walkPosition;
+    private boolean shifted;
+    private volatile PublishSubject<Vault.Update<SharedItemState>> updates = PublishSubject.create();
+    private volatile boolean tracking;
+    private volatile boolean seeded;
+    private final AtomicBoolean seeding = new AtomicBoolean();
+    private volatile long retryAt;
+
+    public SharedItemReplica(SharedItemReader client) {
+        this(client, seeders);
+    }
+
+    SharedItemReplica(SharedItemReader client, Executor seeder) {
+        this.client = client;
+        this.seeder = seeder;
+        startSeeding();
+    }
+
+    private void startSeeding() {
+        if (seeding.compareAndSet(false, true)) seeder.execute(this::seed);
+    }
+
+    private void seed() {
+        try {
+            if (!tracking) subscribe();
+
+            for (int walk = 1; walk <= MAX_SEED_WALKS && tracking; walk++) {
+                if (walk > 1) Thread.sleep(SEED_BACKOFF_MILLIS << (walk - 2));
+                if (walk()) {
+                    logger.info("Read replica seeded with {} items", size());
+                    return;
+                }
+            }
+
+            logger.error("Read replica could not be seeded in {} walks of the vault, reads will go to the node and seeding is retried in {}ms",
+                    MAX_SEED_WALKS, SEED_RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Failed to seed read replica, reads will go to the node and seeding is retried in {}ms", SEED_RETRY_MILLIS, e);
+        } finally {
+            if (!seeded) retryAt = System.currentTimeMillis() + SEED_RETRY_MILLIS;
+            seeding.set(false);
+        }
+    }
+
+    private void subscribe() {
+        // anything held was left by a feed that failed, and may have been consumed since
+        lock.writeLock().lock();
+        try {
+            states.clear();
+            byLink.clear();
+            byFrom.clear();
+            byTo.clear();
+            byToTmpId.clear();
+            byTimestamp.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // Subscribe before seeding, so nothing recorded in between is missed.
+        tracking = true;
+        try {
+            client.getUpdates().subscribe(this::apply, this::feedFailed);
+        } catch (RuntimeException e) {
+            tracking = false;
+            throw e;
+        }
+    }
+
+    private void feedFailed(Throwable error) {
+        logger.error("Vault feed failed, reads will go to the node until the read replica is seeded again", error);
+        PublishSubject<Vault.Update<SharedItemState>> failed;
+        lock.writeLock().lock();
+        try {
+            tracking = false;
+            seeded = false;
+            failed = updates;
+            updates = PublishSubject.create();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        retryAt = System.currentTimeMillis() + SEED_RETRY_MILLIS;
+        failed.onError(error);
+    }
+
+    /**
+     * Pages through the vault once, adding every state to the replica.
+     *
+     * @return whether the replica now holds every unconsumed state. It may not if a state the walk had already
+     *         fetched was consumed during it, as the pages fetched after that are shifted back by one.
+     */
+    private boolean walk() {
+        lock.writeLock().lock();
+        try {
+            consumedWhileSeeding = new HashSet<>();
+            walkPosition = null;
+            shifted = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            client.forEachPage(new SharedItemFilter(), SharedItemClient.MAX_PAGE_SIZE, page -> {
+                lock.writeLock().lock();
+                try {
+                    for (StateAndRef<SharedItemState> state: page) {
+                        if (consumedWhileSeeding.contains(state.getRef())) {
+                            // consumed after this page was fetched
+                            shifted = true;
+                        } else {
+                            add(state);
+                        }
+                    }
+
+                    walkPosition = page.get(page.size() - 1).getRef();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            });
+
+            lock.writeLock().lock();
+            try {
+                if (shifted || !tracking) return false;
+
+                seeded = true;
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                consumedWhileSeeding = null;
+                walkPosition = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return whether reads are served from the replica, starting another attempt to seed it if one is due
+     */
+    private boolean serving() {
+        if (seeded) return true;
+
+        if (!seeding.get() && System.currentTimeMillis() >= retryAt) startSeeding();
+        return false;
+    }
+
+    private void apply(Vault.Update<SharedItemState> update) {
+        lock.writeLock().lock();
+        try {
+            for (StateAndRef<SharedItemState> state: update.getConsumed()) {
+                remove(state.getRef());
+                if (consumedWhileSeeding != null) {
+                    consumedWhileSeeding.add(state.getRef());
+                    if (walkPosition != null && REF_ORDER.compare(state.getRef(), walkPosition) <= 0) shifted = true;
+                }
+            }
+
+            for (StateAndRef<SharedItemState> state: update.getProduced()) {
+                add(state);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        updates.onNext(update);
+    }
+
+    private void add(StateAndRef<SharedItemState> stateAndRef) {
+        StateRef ref = stateAndRef.getRef();
+        if (states.put(ref, stateAndRef) != null) return;
+
+        SharedItemState state = stateAndRef.getState().getData();
+        index(byLink, state.getLink(), ref);
+        index(byFrom, state.getFrom().getName().toString(), ref);
+        index(byTo, state.getTo() == null ? null : state.getTo().getName().toString(), ref);
+        index(byToTmpId, state.getToTmpId(), ref);
+        index(byTimestamp, state.getTimestamp(), ref);
+    }
+
+    private void remove(StateRef ref) {
+        StateAndRef<SharedItemState> stateAndRef = states.remove(ref);
+        if (stateAndRef == null) return;
+
+        SharedItemState state = stateAndRef.getState().getData();
+        unindex(byLink, state.getLink(), ref);
+        unindex(byFrom, state.getFrom().getName().toString(), ref);
+        unindex(byTo, state.getTo() == null ? null : state.getTo().getName().toString(), ref);
+        unindex(byToTmpId, state.getToTmpId(), ref);
+        unindex(byTimestamp, state.getTimestamp(), ref);
+    }
+
+    private static <K> void index(Map<K, NavigableSet<StateRef>> index, K key, StateRef ref) {
+        index.computeIfAbsent(key, k -> new TreeSet<>(REF_ORDER)).add(ref);
+    }
+
+    private static <K> void unindex(Map<K, NavigableSet<StateRef>> index, K key, StateRef ref) {
+        NavigableSet<StateRef> refs = index.get(key);
+        if (refs == null) return;
+
+        refs.remove(ref);
+        if (refs.isEmpty()) index.remove(key);
+    }
+
+    /**
+     * @return state tips matching the filter, in the client's order. The read lock must be held.
+     */
+    private List<StateAndRef<SharedItemState>> matching(SharedItemFilter filter) {
+        List<StateAndRef<SharedItemState>> result = new ArrayList<>();
+        Selection selection = candidates(filter);
+        for (StateRef ref: selection.refs) {
+            StateAndRef<SharedItemState> state = states.get(ref);
+            if (selection.exact || filter.matches(state.getState().getData())) result.add(state);
+        }
+
+        // a stable sort, so ties stay in state ref order
+        if (filter.getTimestampOrder() == Sort.Direction.ASC) result.sort(TIMESTAMP_ORDER);
+        if (filter.getTimestampOrder() == Sort.Direction.DESC) result.sort(TIMESTAMP_ORDER.reversed());
+        return result;
+    }
+
+    /**
+     * One page of the states matching the filter, visiting only the states up to the end of the page when the
+     * filter is answered exactly by an index entry, or by the timestamp index for an unfiltered timestamp order.
+     * The read lock must be held.
+     */
+    private ResultPage<StateAndRef<SharedItemState>> pageOf(SharedItemFilter filter, int pageNumber, int pageSize) {
+        long fromIndex = (long) (pageNumber - 1) * pageSize;
+        Selection selection = candidates(filter);
+        Iterable<StateRef> refs = selection.refs;
+        if (filter.getTimestampOrder() != null) {
+            if (selection.refs.size() < states.size()) {
+                // a selective filter, so sorting its matches costs little
+                List<StateAndRef<SharedItemState>> matches = matching(filter);
+                int from = (int) Math.min(fromIndex, matches.size());
+                int to = Math.min(from + pageSize, matches.size());
+                return new ResultPage<>(new ArrayList<>(matches.subList(from, to)), pageNumber, pageSize, matches.size());
+            }
+
+            refs = inTimestampOrder(filter.getTimestampOrder());
+        }
+
+        List<StateAndRef<SharedItemState>> items = new ArrayList<>();
+        long matched = 0;
+        if (!selection.exact || fromIndex < selection.refs.size()) {
+            for (StateRef ref: refs) {
+                StateAndRef<SharedItemState> state = states.get(ref);
+                if (!selection.exact && !filter.matches(state.getState().getData())) continue;
+
+                if (matched >= fromIndex && items.size() < pageSize) items.add(state);
+                matched++;
+                // the total is known, so the rest needn't be visited
+                if (selection.exact && items.size() == pageSize) break;
+            }
+        }
+
+        long total = selection.exact ? selection.refs.size() : matched;
+        return new ResultPage<>(items, pageNumber, pageSize, total);
+    }
+
+    /**
+     * @return every state, in the timestamp order the client sorts by, with ties in state ref order
+     */
+    private Iterable<StateRef> inTimestampOrder(Sort.Direction direction) {
+        NavigableMap<Long, NavigableSet<StateRef>> ordered = direction == Sort.Direction.ASC ? byTimestamp : byTimestamp.descendingMap();
+        return () -> ordered.values().stream().flatMap(Collection::stream).iterator();
+    }
+
+    private static class Selection {
+        // in state ref order
+        final Collection<StateRef> refs;
+        // whether every state selected matches the filter, so it needn't be evaluated
+        final boolean exact;
+
+        Selection(Collection<StateRef> refs, boolean exact) {
+            this.refs = refs;
+            this.exact = exact;
+        }
+    }
+
+    /**
+     * @return the fewest states that include every state matching the filter
+     */
+    private Selection candidates(SharedItemFilter filter) {
+        Collection<StateRef> smallest = states.navigableKeySet();
+        List<Collection<StateRef>> selected = new ArrayList<>();
+        if (filter.getLink() != null) selected.add(lookup(byLink, filter.getLink()));
+        if (filter.getLinks() != null) {
+            NavigableSet<StateRef> refs = new TreeSet<>(REF_ORDER);
+            filter.getLinks().forEach(link -> refs.addAll(lookup(byLink, link)));
+            selected.add(refs);
+        }
+
+        if (filter.getFrom() != null) selected.add(lookup(byFrom, filter.getFrom()));
+        if (filter.getTo() != null) {
+            selected.add(lookup(byTo, filter.getTo()));
+        } else if (filter.isUnresolved()) {
+            selected.add(lookup(byTo, null));
+        }
+
+        if (filter.getToTmpId() != null) selected.add(lookup(byToTmpId, filter.getToTmpId()));
+
+        for (Collection<StateRef> refs: selected) {
+            if (refs.size() <= smallest.size()) smallest = refs;
+        }
+
+        return new Selection(smallest, selected.size() <= 1 && conditions(filter) == selected.size());
+    }
+
+    private static int conditions(SharedItemFilter filter) {
+        int conditions = 0;
+        for (Object condition: Arrays.asList(filter.getLink(), filter.getLinks(), filter.getFrom(), filter.getTo(),
+                filter.getToTmpId(), filter.getTimestamp(), filter.getSince(), filter.getUntil())) {
+            if (condition != null) conditions++;
+        }
+
+        return filter.isUnresolved() ? conditions + 1 : conditions;
+    }
+
+    private static Collection<StateRef> lookup(Map<String, NavigableSet<StateRef>> index, String key) {
+        NavigableSet<StateRef> refs = index.get(key);
+        return refs == null ? Collections.emptySet() : refs;
+    }
+
+    private <T> T read(Function<SharedItemFilter, T> query, SharedItemFilter filter) {
+        lock.readLock().lock();
+        try {
+            return query.apply(filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public ResultPage<StateAndRef<SharedItemState>> page(SharedItemFilter filter, int pageNumber, int pageSize) {
+        if (!serving()) return client.page(filter, pageNumber, pageSize);
+
+        if (pageNumber < 1) {
+            throw new IllegalArgumentException(String.format("page number must be at least 1, got %d", pageNumber));
+        }
+
+        if (pageSize < 1 || pageSize > SharedItemClient.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("page size must be between 1 and %d, got %d", SharedItemClient.MAX_PAGE_SIZE, pageSize));
+        }
+
+        return read(f -> pageOf(f, pageNumber, pageSize), filter);
+    }
+
+    /**
+     * Unlike the client's, pages are cut from a single snapshot of the matching states.
+     */
+    public void forEachPage(SharedItemFilter filter, int pageSize, Consumer<List<StateAndRef<SharedItemState>>> consumer) {
+        if (!serving()) {
+            client.forEachPage(filter, pageSize, consumer);
+            return;
+        }
+
+        if (pageSize < 1 || pageSize > SharedItemClient.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("page size must be between 1 and %d, got %d", SharedItemClient.MAX_PAGE_SIZE, pageSize));
+        }
+
+        List<StateAndRef<SharedItemState>> matches = read(this::matching, filter);
+        for (int fromIndex = 0; fromIndex < matches.size(); fromIndex += pageSize) {
+            consumer.accept(matches.subList(fromIndex, Math.min(fromIndex + pageSize, matches.size())));
+        }
+    }
+
+    public Map<String, List<StateAndRef<SharedItemState>>> getStatesWithLinks(Collection<String> links) {
+        if (!serving()) return client.getStatesWithLinks(links);
+
+        if (links.isEmpty() || links.size() > SharedItemClient.MAX_LOOKUP_LINKS) {
+            throw new IllegalArgumentException(String.format("between 1 and %d links must be provided, got %d", SharedItemClient.MAX_LOOKUP_LINKS, links.size()));
+        }
+
+        Map<String, List<StateAndRef<SharedItemState>>> found = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            for (String link: links) {
+                List<StateAndRef<SharedItemState>> items = new ArrayList<>();
+                lookup(byLink, link).forEach(ref -> items.add(states.get(ref)));
+                found.put(link, items);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return found;
+    }
+
+    public long count(SharedItemFilter filter) {
+        if (!serving()) return client.count(filter);
+
+        return this.<Long>read(f -> {
+            Selection selection = candidates(f);
+            if (selection.exact) return (long) selection.refs.size();
+
+            return selection.refs.stream().filter(ref -> f.matches(states.get(ref).getState().getData())).count();
+        }, filter);
+    }
+
+    public List<ItemStats> stats(SharedItemFilter filter, Field groupBy) {
+        if (!serving()) return client.stats(filter, groupBy);
+
+        Function<SharedItemState, String> group;
+        if (groupBy == null) {
+            group = state -> null;
+        } else if (groupBy.equals(SharedItemSchemaV2.from)) {
+            group = state -> state.getFrom().getName().toString();
+        } else if (groupBy.equals(SharedItemSchemaV2.to)) {
+            group = state -> state.getTo() == null ? null : state.getTo().getName().toString();
+        } else if (groupBy.equals(SharedItemSchemaV2.toTmpId)) {
+            group = SharedItemState::getToTmpId;
+        } else {
+            throw new IllegalArgumentException("can't group by " + groupBy.getName());
+        }
+
+        // count, first and last timestamp per group, nulls last as from the client
+        Map<String, long[]> groups = new TreeMap<>(Comparator.nullsLast(Comparator.<String>naturalOrder()));
+        for (StateAndRef<SharedItemState> stateAndRef: read(this::matching, filter)) {
+            SharedItemState state = stateAndRef.getState().getData();
+            long[] stats = groups.computeIfAbsent(group.apply(state), g -> new long[] { 0, Long.MAX_VALUE, Long.MIN_VALUE });
+            stats[0]++;
+            stats[1] = Math.min(stats[1], state.getTimestamp());
+            stats[2] = Math.max(stats[2], state.getTimestamp());
+        }
+
+        if (groupBy == null && groups.isEmpty()) {
+            return ImmutableList.of(new ItemStats(null, 0, null, null));
+        }
+
+        if (groups.size() > SharedItemClient.MAX_STATS_GROUPS) {
+            throw new IllegalArgumentException(String.format("%d groups match, at most %d can be returned", groups.size(), SharedItemClient.MAX_STATS_GROUPS));
+        }
+
+        List<ItemStats> result = new ArrayList<>(groups.size());
+        groups.forEach((name, stats) -> result.add(new ItemStats(name, stats[0], stats[1], stats[2])));
+        return result;
+    }
+
+    public Map<String, Long> countByParty() {
+        if (!serving()) return client.countByParty();
+
+        lock.readLock().lock();
+        try {
+            Map<String, Long> counts = new TreeMap<>();
+            byFrom.forEach((name, refs) -> counts.merge(name, (long) refs.size(), Long::sum));
+            byTo.forEach((name, refs) -> {
+                if (name != null) counts.merge(name, (long) refs.size(), Long::sum);
+            });
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the party with this X.500 name as recorded in an item, or as known to the node if there is none
+     */
+    public Party findParty(String name) {
+        if (serving()) {
+            lock.readLock().lock();
+            try {
+                Collection<StateRef> from = lookup(byFrom, name);
+                if (!from.isEmpty()) return states.get(from.iterator().next()).getState().getData().getFrom();
+
+                Collection<StateRef> to = lookup(byTo, name);
+                if (!to.isEmpty()) return states.get(to.iterator().next()).getState().getData().getTo();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        return client.findParty(name);
+    }
+
+    /**
+     * @return updates applied to the replica, or the node's vault updates if the replica is not serving reads
+     */
+    public Observable<Vault.Update<SharedItemState>> getUpdates() {
+        return serving() ? updates : client.getUpdates();
+    }
+
+    /**
+     * @return number of items held, or -1 if reads go to the node
+     */
+    public int size() {
+        if (!serving()) return -1;
+
+        lock.readLock().lock();
+        try {
+            return states.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.template;
+
+import com.template.schema.SharedItemSchemaV2;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * Copies items recorded under SharedItemSchemaV1 into the indexed SharedItemSchemaV2 table when the node starts,
+ * so that items recorded before the upgrade are still found by the API's queries, which only read V2.
+ *
+ * Items are no longer recorded under V1, so once the copy has succeeded a marker row is written to
+ * shared_item_migrations, and later starts only look that row up. Delete it to copy again, e.g. after rolling a
+ * node back to a release that wrote V1. Link hashes are computed here with SharedItemSchemaV2.hashLink, so the SQL
+ * is the same on every database.
+ */
+@CordaService
+public class SharedItemSchemaMigration extends SingletonSerializeAsToken {
+    private static final Logger logger = LoggerFactory.getLogger(SharedItemSchemaMigration.class);
+    private static final int BATCH_SIZE = 1000;
+    private static final String MIGRATION_ID = "shared-item-v1-to-v2";
+
+    private static final String CREATE_MIGRATIONS = "CREATE TABLE shared_item_migrations " +
+            "(migration_id VARCHAR(64) NOT NULL PRIMARY KEY, completed_at TIMESTAMP NOT NULL)";
+    private static final String FIND_MIGRATION = "SELECT 1 FROM shared_item_migrations WHERE migration_id = ?";
+    private static final String RECORD_MIGRATION = "INSERT INTO shared_item_migrations (migration_id, completed_at) VALUES (?, ?)";
+
+    private static final String COPY_V1_ROWS = "INSERT INTO shared_item_states_v2 " +
+            "(transaction_id, output_index, share_from, share_to, share_to_tmp, share_link, share_timestamp, linear_id) " +
+            "SELECT v1.transaction_id, v1.output_index, v1.share_from, v1.share_to, v1.share_to_tmp, v1.share_link, v1.share_timestamp, v1.linear_id " +
+            "FROM shared_item_states v1 " +
+            "WHERE NOT EXISTS (SELECT 1 FROM shared_item_states_v2 v2 " +
+            "WHERE v2.transaction_id = v1.transaction_id AND v2.output_index = v1.output_index)";
+    private static final String MISSING_HASHES = "SELECT transaction_id, output_index, share_link FROM shared_item_states_v2 " +
+            "WHERE share_link_hash IS NULL AND share_link IS NOT NULL";
+    private static final String SET_HASH = "UPDATE shared_item_states_v2 SET share_link_hash = ? " +
+            "WHERE transaction_id = ? AND output_index = ?";
+
+    public SharedItemSchemaMigration(AppServiceHub serviceHub) {
+        try {
+            migrate(serviceHub.jdbcSession());
+        } catch (SQLException e) {
+            // the node still works, but items recorded before the upgrade are missing from the API until this succeeds
+            logger.error("Failed to copy SharedItemSchemaV1 rows to SharedItemSchemaV2, see migration/shared-item-v1-to-v2.sql", e);
+        }
+    }
+
+    static void migrate(Connection connection) throws SQLException {
+        if (isMigrated(connection)) return;
+
+        // The node creates the tables of the CorDapp's schemas before starting services, so this only happens if
+        // it was started without creating them.
+        if (!hasTable(connection, "shared_item_states_v2")) {
+            logger.warn("shared_item_states_v2 doesn't exist, SharedItemSchemaV1 rows will be copied on the next start");
+            return;
+        }
+
+        if (hasTable(connection, "shared_item_states")) copy(connection);
+        recordMigration(connection);
+    }
+
+    private static void copy(Connection connection) throws SQLException {
+        int copied;
+        try (Statement statement = connection.createStatement()) {
+            copied = statement.executeUpdate(COPY_V1_ROWS);
+        }
+
+        int hashed = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet rows = select.executeQuery(MISSING_HASHES);
+             PreparedStatement update = connection.prepareStatement(SET_HASH)) {
+            while (rows.next()) {
+                update.setString(1, SharedItemSchemaV2.hashLink(rows.getString(3)));
+                update.setString(2, rows.getString(1));
+                update.setInt(3, rows.getInt(2));
+                update.addBatch();
+                if (++hashed % BATCH_SIZE == 0) update.executeBatch();
+            }
+
+            update.executeBatch();
+        }
+
+        if (copied > 0 || hashed > 0) {
+            logger.info("Copied {} SharedItemSchemaV1 rows to SharedItemSchemaV2 and hashed {} links", copied, hashed);
+        }
+    }
+
+    private static boolean isMigrated(Connection connection) throws SQLException {
+        if (!hasTable(connection, "shared_item_migrations")) return false;
+
+        try (PreparedStatement select = connection.prepareStatement(FIND_MIGRATION)) {
+            select.setString(1, MIGRATION_ID);
+            try (ResultSet rows = select.executeQuery()) {
+                return rows.next();
+            }
+        }
+    }
+
+    private static void recordMigration(Connection connection) throws SQLException {
+        if (!hasTable(connection, "shared_item_migrations")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(CREATE_MIGRATIONS);
+            }
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement(RECORD_MIGRATION)) {
+            insert.setString(1, MIGRATION_ID);
+            insert.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            insert.executeUpdate();
+        }
+    }
+
+    private static boolean hasTable(Connection connection, String name) throws SQLException {
+        // databases differ in the case they store unquoted names in
+        for (String candidate: new String[] { name, name.toUpperCase() }) {
+            try (ResultSet tables = connection.getMetaData().getTables(null, null, candidate, null)) {
+                if (tables.next()) return true;
+            }
+        }
+
+        return false;
+    }
+}
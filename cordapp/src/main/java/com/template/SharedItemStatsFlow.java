@@ -0,0 +1,92 @@
+package com.template;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableSet;
+import com.template.schema.SharedItemSchemaV2;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.node.services.Vault;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Counts and first and last timestamps of the unconsumed items matching a filter, per value of a column, with a
+ * single GROUP BY on the node's database. Vault aggregates can't group a count, so this is how SharedItemClient
+ * gets per-group counts without a COUNT query per group.
+ */
+@StartableByRPC
+public class SharedItemStatsFlow extends FlowLogic<List<ItemStats>> {
+    private static final Set<String> GROUP_COLUMNS = ImmutableSet.of(
+            SharedItemSchemaV2.from.getName(),
+            SharedItemSchemaV2.to.getName(),
+            SharedItemSchemaV2.toTmpId.getName());
+
+    private final SharedItemFilter filter;
+    private final String groupBy;
+    private final int limit;
+
+    /**
+     * @param groupBy name of the SharedItemSchemaV2 field to group by: from, to or toTmpId, or null for a single
+     *                group of all matching items
+     * @param limit maximum number of groups to return, or 0 for all of them
+     */
+    public SharedItemStatsFlow(SharedItemFilter filter, String groupBy, int limit) {
+        if (groupBy != null && !GROUP_COLUMNS.contains(groupBy)) {
+            throw new IllegalArgumentException("can't group by " + groupBy);
+        }
+
+        this.filter = filter;
+        this.groupBy = groupBy;
+        this.limit = limit;
+    }
+
+    /**
+     * @return one entry per group, sorted by group, with the group of items without a value last. If there are
+     *         more than limit groups, which limit of them are returned is undefined.
+     */
+    @Suspendable
+    @Override
+    public List<ItemStats> call() throws FlowException {
+        String group = groupBy == null ? "NULL" : "s." + SharedItemSchemaV2.columnName(SharedItemSchemaV2.getField(groupBy));
+        String timestamp = "s." + SharedItemSchemaV2.columnName(SharedItemSchemaV2.timestamp);
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(Vault.StateStatus.UNCONSUMED.ordinal());
+        String sql = "SELECT " + group + ", COUNT(*), MIN(" + timestamp + "), MAX(" + timestamp + ") " +
+                "FROM shared_item_states_v2 s " +
+                "JOIN vault_states v ON v.transaction_id = s.transaction_id AND v.output_index = s.output_index " +
+                "WHERE v.state_status = ? AND " + filter.toSql("s", parameters) +
+                (groupBy == null ? "" : " GROUP BY " + group);
+
+        List<ItemStats> stats = new ArrayList<>();
+        try (PreparedStatement statement = getServiceHub().jdbcSession().prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+
+            if (limit > 0) statement.setMaxRows(limit);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    stats.add(new ItemStats(rows.getString(1), rows.getLong(2), nullableLong(rows, 3), nullableLong(rows, 4)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new FlowException("Failed to aggregate shared items", e);
+        }
+
+        // databases disagree on where NULL sorts, so sort here
+        stats.sort(Comparator.comparing(ItemStats::getGroup, Comparator.nullsLast(Comparator.<String>naturalOrder())));
+        return stats;
+    }
+
+    private static Long nullableLong(ResultSet rows, int column) throws SQLException {
+        long value = rows.getLong(column);
+        return rows.wasNull() ? null : value;
+    }
+}
@@ -0,0 +1,49 @@
+package com.template;
+
+import net.corda.core.contracts.StateAndRef;
+
+/**
+ * Compact projection of an item for listings: its fields, with parties reduced to their X.500 names, and the ref
+ * of the state holding it, without the transaction state envelope.
+ */
+public class SharedItemView {
+    private final String link;
+    private final String from;
+    private final String to;
+    private final String toTmpId;
+    private final long timestamp;
+    private final String linearId;
+    private final String ref;
+
+    public SharedItemView(String link, String from, String to, String toTmpId, long timestamp, String linearId, String ref) {
+        this.link = link;
+        this.from = from;
+        this.to = to;
+        this.toTmpId = toTmpId;
+        this.timestamp = timestamp;
+        this.linearId = linearId;
+        this.ref = ref;
+    }
+
+    public static SharedItemView of(StateAndRef<SharedItemState> stateAndRef) {
+        SharedItemState state = stateAndRef.getState().getData();
+        return new SharedItemView(
+                state.getLink(),
+                state.getFrom().getName().toString(),
+                state.getTo() == null ? null : state.getTo().getName().toString(),
+                state.getToTmpId(),
+                state.getTimestamp(),
+                state.getLinearId().toString(),
+                stateAndRef.getRef().toString());
+    }
+
+    public String getLink() { return link; }
+    public String getFrom() { return from; }
+    /** @return null until resolved */
+    public String getTo() { return to; }
+    public String getToTmpId() { return toTmpId; }
+    public long getTimestamp() { return timestamp; }
+    public String getLinearId() { return linearId; }
+    /** @return the state's ref, as "txhash(index)" */
+    public String getRef() { return ref; }
+}
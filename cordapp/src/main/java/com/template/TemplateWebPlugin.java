@@ -37,9 +37,12 @@ public class TemplateWebPlugin implements WebServerPluginRegistry {
                 "template", getClass().getClassLoader().getResource("templateWeb").toExternalForm());
     }
 
+    /**
+     * Registers streaming serializers for the items the API lists, used for every JSON response.
+     */
     @Override
     public void customizeJSONSerialization(ObjectMapper objectMapper) {
-
+        SharedItemJacksonModule.register(objectMapper);
     }
 
 //    @NotNull
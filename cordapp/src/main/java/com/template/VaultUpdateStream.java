@@ -0,0 +1,246 @@
+package com.template;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.Vault;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Server-Sent Events stream of the states matching a filter: a snapshot, sent as one "snapshot" event per vault
+ * page and followed by a "ready" event, then an "update" event with the matching produced and consumed states of
+ * each vault update.
+ *
+ * Updates are buffered from before the snapshot is taken, so some states may appear both in the snapshot and in an
+ * update; consumers should key states by their ref. If a consumer falls more than MAX_BUFFERED_UPDATES behind, it is
+ * sent an "overflow" event and disconnected, and should reconnect to get a fresh snapshot.
+ *
+ * Every stream subscribes to the reader's shared vault feed, and is written to as a Jersey ChunkedOutput. Writes
+ * block while a consumer is slow to read, so each stream is written to by at most one task at a time, on a thread
+ * of its own from a cached pool: a slow consumer only holds up its own stream, and an open stream holds no thread
+ * while it waits for updates. A keep-alive comment is sent to every stream every KEEP_ALIVE_SECONDS, which also
+ * finds consumers that have gone away and releases their slots.
+ *
+ * The limits are read from the sharedItem.updateStreamBuffer, sharedItem.maxUpdateStreams and
+ * sharedItem.updateStreamKeepAliveSeconds system properties.
+ */
+public class VaultUpdateStream extends ChunkedOutput<String> {
+    private static final Logger logger = LoggerFactory.getLogger(VaultUpdateStream.class);
+    public static final String MEDIA_TYPE = "text/event-stream";
+    public static final int MAX_BUFFERED_UPDATES = Integer.getInteger("sharedItem.updateStreamBuffer", 1000);
+    public static final int MAX_SUBSCRIBERS = Integer.getInteger("sharedItem.maxUpdateStreams", 100);
+    public static final long KEEP_ALIVE_SECONDS = Long.getLong("sharedItem.updateStreamKeepAliveSeconds", 15);
+    private static final String KEEP_ALIVE = ": keep-alive\n\n";
+
+    private static final AtomicInteger subscribers = new AtomicInteger();
+    private static final Set<VaultUpdateStream> open = ConcurrentHashMap.newKeySet();
+    // at most one thread per open stream, as each stream runs one write task at a time
+    private static final ExecutorService writers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "vault-update-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        ScheduledExecutorService keepAlive = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vault-update-stream-keep-alive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        keepAlive.scheduleWithFixedDelay(() -> open.forEach(VaultUpdateStream::keepAlive),
+                KEEP_ALIVE_SECONDS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private final SharedItemReader reader;
+    private final ObjectMapper mapper;
+    private final SharedItemFilter filter;
+    private final Executor writer;
+    private final int maxBufferedUpdates;
+    // events waiting to be sent, which are held until the snapshot has been sent
+    private final Queue<String> events;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean ready;
+    private volatile boolean overflowed;
+    private volatile Subscription subscription;
+
+    /**
+     * Opens a stream, which holds a subscriber slot until it is closed.
+     *
+     * @return the stream to return as the response entity, or null if there are already MAX_SUBSCRIBERS open
+     */
+    public static VaultUpdateStream open(SharedItemReader reader, ObjectMapper mapper, SharedItemFilter filter) {
+        return open(reader, mapper, filter, MAX_SUBSCRIBERS);
+    }
+
+    static VaultUpdateStream open(SharedItemReader reader, ObjectMapper mapper, SharedItemFilter filter, int maxSubscribers) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            return null;
+        }
+
+        VaultUpdateStream stream = new VaultUpdateStream(reader, mapper, filter, writers, MAX_BUFFERED_UPDATES);
+        open.add(stream);
+        stream.start();
+        return stream;
+    }
+
+    /**
+     * @return number of streams holding a subscriber slot
+     */
+    public static int getSubscribers() {
+        return subscribers.get();
+    }
+
+    /**
+     * @param writer runs the stream's write tasks, one at a time
+     */
+    VaultUpdateStream(SharedItemReader reader, ObjectMapper mapper, SharedItemFilter filter, Executor writer, int maxBufferedUpdates) {
+        super(String.class);
+        this.reader = reader;
+        this.mapper = mapper;
+        this.filter = filter;
+        this.writer = writer;
+        this.maxBufferedUpdates = maxBufferedUpdates;
+        this.events = new ArrayBlockingQueue<>(maxBufferedUpdates);
+    }
+
+    void start() {
+        writer.execute(() -> {
+            try {
+                // Subscribe before taking the snapshot, so nothing recorded in between is missed.
+                subscription = reader.getUpdates().subscribe(this::onUpdate, error -> {
+                    logger.warn("Vault feed failed, closing update stream", error);
+                    overflowed = true;
+                    drain();
+                });
+                if (closed.get()) subscription.unsubscribe();
+
+                try {
+                    reader.forEachPage(filter, SharedItemClient.DEFAULT_PAGE_SIZE, page -> {
+                        try {
+                            write(event("snapshot", page));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                write(event("ready", Collections.emptyList()));
+                ready = true;
+                drain();
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Update stream consumer went away", e);
+                closeQuietly();
+            }
+        });
+    }
+
+    private void onUpdate(Vault.Update<SharedItemState> update) {
+        List<StateAndRef<SharedItemState>> produced = matching(update.getProduced());
+        List<StateAndRef<SharedItemState>> consumed = matching(update.getConsumed());
+        if (produced.isEmpty() && consumed.isEmpty()) return;
+
+        try {
+            if (!events.offer(event("update", ImmutableMap.of("produced", produced, "consumed", consumed)))) {
+                overflowed = true;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to serialise vault update", e);
+            overflowed = true;
+        }
+
+        drain();
+    }
+
+    private void keepAlive() {
+        // only needed when nothing else is waiting to be sent
+        if (events.isEmpty()) events.offer(KEEP_ALIVE);
+        drain();
+    }
+
+    /**
+     * Sends the queued events on a writer thread, unless one is already doing so, so this stream's writes never run
+     * concurrently and a blocked write only holds up this stream.
+     */
+    private void drain() {
+        if (!ready || closed.get() || !draining.compareAndSet(false, true)) return;
+
+        writer.execute(() -> {
+            try {
+                if (overflowed) {
+                    write(event("overflow", String.format("more than %d updates behind", maxBufferedUpdates)));
+                    closeQuietly();
+                    return;
+                }
+
+                for (String event; (event = events.poll()) != null;) {
+                    write(event);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Update stream consumer went away", e);
+                closeQuietly();
+            } finally {
+                draining.set(false);
+            }
+
+            // events queued after the last poll, before draining was cleared
+            if (!events.isEmpty() || overflowed) drain();
+        });
+    }
+
+    private List<StateAndRef<SharedItemState>> matching(Iterable<StateAndRef<SharedItemState>> states) {
+        return StreamSupport.stream(states.spliterator(), false)
+                .filter(state -> filter.matches(state.getState().getData()))
+                .collect(Collectors.toList());
+    }
+
+    private String event(String event, Object data) throws IOException {
+        // JSON has no raw newlines, so the data always fits on one line
+        return "event: " + event + "\ndata: " + mapper.writeValueAsString(data) + "\n\n";
+    }
+
+    /**
+     * Ends the stream, releasing its subscriber slot and its vault feed subscription.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) return;
+
+        Subscription current = subscription;
+        if (current != null) current.unsubscribe();
+        if (open.remove(this)) subscribers.decrementAndGet();
+        events.clear();
+        super.close();
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            logger.debug("Failed to close update stream", e);
+        }
+    }
+}
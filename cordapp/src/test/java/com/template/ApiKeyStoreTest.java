@@ -0,0 +1,92 @@
+package com.template;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ApiKeyStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private ApiKeyStore store;
+
+    @Before
+    public void setup() throws IOException {
+        path = folder.getRoot().toPath().resolve("apikeys.txt");
+        write("abc\n def \n\n");
+        store = new ApiKeyStore(path);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    private void write(String contents) throws IOException {
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void checksKeys() {
+        assert store.isEnabled();
+        assert store.check("abc");
+        assert store.check("def") : "keys are trimmed";
+        assert !store.check("ghi");
+        assert !store.check("") : "blank lines are not keys";
+        assert !store.check(null);
+        assert store.getRequestCounts().size() == 2 : "accepted requests are counted per key";
+    }
+
+    @Test
+    public void reloadReplacesKeys() throws IOException {
+        write("ghi\n");
+        store.reload();
+
+        assert store.check("ghi");
+        assert !store.check("abc") : "revoked key is refused";
+    }
+
+    @Test
+    public void reloadKeepsKeysWhenFileIsDeleted() throws IOException {
+        Files.delete(path);
+        store.reload();
+
+        assert store.isEnabled();
+        assert store.check("abc");
+        assert !store.check("ghi") : "a missing file doesn't let everyone in";
+    }
+
+    @Test
+    public void reloadKeepsKeysWhenFileIsTruncated() throws IOException {
+        write("");
+        store.reload();
+
+        assert store.isEnabled();
+        assert store.check("abc");
+        assert !store.check("ghi") : "an empty file doesn't let everyone in";
+
+        write("ghi\n");
+        store.reload();
+        assert store.check("ghi") : "keys are loaded once the file has been written";
+        assert !store.check("abc");
+    }
+
+    @Test
+    public void withoutKeysEveryoneIsAllowed() throws IOException {
+        store.close();
+        Files.delete(path);
+        store = new ApiKeyStore(path);
+
+        assert !store.isEnabled();
+        assert store.check("anything");
+        assert store.check(null);
+    }
+}
@@ -0,0 +1,177 @@
+package com.template;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import org.junit.Before;
+import org.junit.Test;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static com.template.TestStates.ALICE;
+import static com.template.TestStates.BOB;
+import static com.template.TestStates.item;
+import static com.template.TestStates.update;
+
+public class CounterpartyIndexTest {
+    private final StubNode node = new StubNode();
+    private PartyCache partyCache;
+
+    @Before
+    public void setup() {
+        node.add(item(BOB, null, "link1"));
+        node.add(item(BOB, null, "link2"));
+        node.add(item(null, "joe", "link3"));
+
+        // an empty network map, so parties are resolved from the items
+        CordaRPCOps rpcOps = (CordaRPCOps) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { CordaRPCOps.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "networkMapFeed": return new DataFeed<>(Collections.emptyList(), PublishSubject.create());
+                case "wellKnownPartyFromX500Name": return null;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        partyCache = new PartyCache(rpcOps);
+    }
+
+    /**
+     * Holds unconsumed states in memory, and counts the queries that reach it.
+     */
+    private static class StubNode implements SharedItemReader {
+        final Map<StateRef, StateAndRef<SharedItemState>> vault = new LinkedHashMap<>();
+        PublishSubject<Vault.Update<SharedItemState>> updates = PublishSubject.create();
+        int queries;
+
+        void add(StateAndRef<SharedItemState> state) {
+            vault.put(state.getRef(), state);
+            updates.onNext(update(Collections.emptyList(), Collections.singleton(state)));
+        }
+
+        void consume(StateAndRef<SharedItemState> state) {
+            vault.remove(state.getRef());
+            updates.onNext(update(Collections.singleton(state), Collections.emptyList()));
+        }
+
+        @Override
+        public Observable<Vault.Update<SharedItemState>> getUpdates() {
+            // a new feed after the last one failed
+            if (updates.hasThrowable()) updates = PublishSubject.create();
+            return updates;
+        }
+
+        @Override
+        public Map<String, Long> countByParty() {
+            queries++;
+            Map<String, Long> counts = new TreeMap<>();
+            for (StateAndRef<SharedItemState> stateAndRef: vault.values()) {
+                SharedItemState state = stateAndRef.getState().getData();
+                counts.merge(state.getFrom().getName().toString(), 1L, Long::sum);
+                if (state.getTo() != null) counts.merge(state.getTo().getName().toString(), 1L, Long::sum);
+            }
+
+            return counts;
+        }
+
+        @Override
+        public long count(SharedItemFilter filter) {
+            queries++;
+            return vault.values().stream().filter(state -> filter.matches(state.getState().getData())).count();
+        }
+
+        @Override
+        public Party findParty(String name) {
+            for (StateAndRef<SharedItemState> stateAndRef: vault.values()) {
+                SharedItemState state = stateAndRef.getState().getData();
+                if (state.getFrom().getName().toString().equals(name)) return state.getFrom();
+                if (state.getTo() != null && state.getTo().getName().toString().equals(name)) return state.getTo();
+            }
+
+            return null;
+        }
+
+        @Override
+        public ResultPage<StateAndRef<SharedItemState>> page(SharedItemFilter filter, int pageNumber, int pageSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachPage(SharedItemFilter filter, int pageSize, Consumer<List<StateAndRef<SharedItemState>>> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, List<StateAndRef<SharedItemState>>> getStatesWithLinks(Collection<String> links) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ItemStats> stats(SharedItemFilter filter, Field groupBy) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static Map<Party, Long> counts(CounterpartyIndex index) {
+        Map<Party, Long> counts = new LinkedHashMap<>();
+        index.getCounts().forEach(count -> counts.put(count.getParty(), count.getCount()));
+        return counts;
+    }
+
+    @Test
+    public void seedsWithOneGroupedQuery() {
+        CounterpartyIndex index = new CounterpartyIndex(node, partyCache);
+        assert node.queries == 1;
+
+        Map<Party, Long> counts = counts(index);
+        assert counts.get(ALICE) == 3 && counts.get(BOB) == 2 : counts;
+        assert node.queries == 1 : "reads don't query the node";
+    }
+
+    @Test
+    public void appliesUpdatesWithoutQuerying() {
+        CounterpartyIndex index = new CounterpartyIndex(node, partyCache);
+        Party carol = TestStates.party("PartyC");
+        StateAndRef<SharedItemState> toCarol = item(carol, null, "link4");
+        node.add(toCarol);
+
+        Map<Party, Long> counts = counts(index);
+        assert counts.get(ALICE) == 4 && counts.get(BOB) == 2 && counts.get(carol) == 1 : counts;
+
+        node.consume(toCarol);
+        for (StateAndRef<SharedItemState> state: new ArrayList<>(node.vault.values())) {
+            if (BOB.equals(state.getState().getData().getTo())) node.consume(state);
+        }
+
+        assert counts(index).size() == 1 && counts(index).get(ALICE) == 1 : "parties without items are dropped";
+        assert index.getParties().equals(Collections.singletonList(ALICE));
+        assert node.queries == 1 : "reads don't query the node";
+    }
+
+    @Test
+    public void reseedsAfterFeedFailure() {
+        CounterpartyIndex index = new CounterpartyIndex(node, partyCache);
+        node.updates.onError(new RuntimeException("feed lost"));
+
+        // not seen by the index, as the feed has failed
+        node.vault.clear();
+        assert counts(index).isEmpty();
+        assert node.queries == 2 : "reseeded on the next read";
+
+        node.add(item(BOB, null, "link5"));
+        assert counts(index).get(BOB) == 1 : "updates are applied again";
+        assert node.queries == 2;
+    }
+}
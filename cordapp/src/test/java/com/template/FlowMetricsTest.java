@@ -0,0 +1,86 @@
+package com.template;
+
+import com.codahale.metrics.MetricRegistry;
+import net.corda.core.internal.concurrent.OpenFuture;
+import org.junit.Before;
+import org.junit.Test;
+import rx.subjects.PublishSubject;
+
+import java.util.Map;
+
+import static net.corda.core.internal.concurrent.CordaFutureImplKt.openFuture;
+
+public class FlowMetricsTest {
+    private FlowMetrics metrics;
+    private PublishSubject<String> progress;
+    private OpenFuture<String> returnValue;
+
+    @Before
+    public void setup() {
+        metrics = new FlowMetrics();
+        progress = PublishSubject.create();
+        returnValue = openFuture();
+        metrics.track("TestFlow", progress, returnValue);
+    }
+
+    @Test
+    public void recordsStepsWhenFlowFinishes() {
+        progress.onNext("one");
+        progress.onNext("two");
+        progress.onNext("one");
+        assert metrics.snapshot().isEmpty() : "nothing is recorded before the flow finishes";
+
+        progress.onCompleted();
+        returnValue.set("done");
+
+        Map<String, LatencySnapshot> steps = metrics.snapshot().get("TestFlow");
+        assert steps.keySet().size() == 3 : "steps and total are recorded";
+        assert steps.get("one").getCount() == 1 : "a step entered twice is recorded once";
+        assert steps.get("two").getCount() == 1;
+        assert steps.get(FlowMetrics.TOTAL).getCount() == 1;
+    }
+
+    @Test
+    public void failedFlowIsOnlyCounted() {
+        progress.onNext("one");
+        progress.onNext("two");
+        progress.onError(new IllegalStateException("flow failed"));
+        returnValue.setException(new IllegalStateException("flow failed"));
+
+        Map<String, LatencySnapshot> steps = metrics.snapshot().get("TestFlow");
+        assert steps.keySet().size() == 1 : "no steps or total are recorded";
+        assert steps.get(FlowMetrics.FAILED).getCount() == 1;
+    }
+
+    @Test
+    public void lostProgressFeedOnlyRecordsTotal() {
+        progress.onNext("one");
+        progress.onError(new IllegalStateException("connection lost"));
+        returnValue.set("done");
+
+        Map<String, LatencySnapshot> steps = metrics.snapshot().get("TestFlow");
+        assert steps.keySet().size() == 1 : "no steps are recorded";
+        assert steps.get(FlowMetrics.TOTAL).getCount() == 1;
+    }
+
+    @Test
+    public void snapshotInMillis() {
+        for (int millis = 1; millis <= 100; millis++) {
+            metrics.record("OtherFlow", "step", millis);
+        }
+
+        LatencySnapshot snapshot = metrics.snapshot().get("OtherFlow").get("step");
+        assert snapshot.getCount() == 100;
+        assert snapshot.getMax() == 100;
+        assert Math.abs(snapshot.getP50() - 50) <= 1;
+        assert Math.abs(snapshot.getP99() - 99) <= 1;
+    }
+
+    @Test
+    public void timersAreRegistered() {
+        MetricRegistry registry = new MetricRegistry();
+        new FlowMetrics(registry).record("OtherFlow", "Signing a transaction.", 10);
+
+        assert registry.getTimers().get(MetricRegistry.name("flows", "OtherFlow", "Signing a transaction.")).getCount() == 1;
+    }
+}
@@ -1,16 +1,21 @@
 package com.template;
 
 import com.google.common.collect.ImmutableList;
+import com.template.schema.SharedItemSchemaV2;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.StateAndContract;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.FlowSession;
 import net.corda.core.identity.Party;
 import net.corda.core.node.services.IdentityService;
 import net.corda.core.node.services.Vault;
 import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.node.internal.InitiatedFlowFactory;
 import net.corda.node.internal.StartedNode;
 import net.corda.testing.node.MockNetwork;
 import org.junit.After;
@@ -20,12 +25,16 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import javax.annotation.Signed;
+import java.lang.reflect.Field;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import static net.corda.testing.CoreTestUtils.setCordappPackages;
 import static net.corda.testing.CoreTestUtils.unsetCordappPackages;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
+import static org.hamcrest.CoreMatchers.instanceOf;
 
 public class FlowTests {
     private MockNetwork network;
@@ -44,7 +53,10 @@ public class FlowTests {
         // For real nodes this happens automatically, but we have to manually register the flow for tests
         for (StartedNode<MockNetwork.MockNode> node : nodes.getPartyNodes()) {
             node.registerInitiatedFlow(CreateFlowResponder.class);
+            node.registerInitiatedFlow(BulkCreateFlowResponder.class);
             node.registerInitiatedFlow(ShareFlowResponder.class);
+            node.registerInitiatedFlow(MultiShareFlowResponder.class);
+            node.registerInitiatedFlow(BulkShareFlowResponder.class);
         }
 
         network.runNetwork();
@@ -119,17 +131,369 @@ public class FlowTests {
         Party bob = b.getInfo().getLegalIdentities().get(0);
         ResolveToIdentityFlow resolveFlow = new ResolveToIdentityFlow(tmpId, bob);
 //        CordaFuture<SignedTransaction> shareFlowFuture = a.getServices().startFlow(shareFlow).getResultFuture();
-        CordaFuture<List<SignedTransaction>> resolveFlowFuture = a.getServices().startFlow(resolveFlow).getResultFuture();
+        CordaFuture<ResolveResult> resolveFlowFuture = a.getServices().startFlow(resolveFlow).getResultFuture();
         network.runNetwork();
 
-        List<SignedTransaction> txs = resolveFlowFuture.get();
-        assert txs.size() == links.size() : "all shared items have been resolved";
-        for (int i = 0; i < txs.size(); i++) {
-            SignedTransaction tx = txs.get(i);
-            SharedItemState state = (SharedItemState) tx.getTx().getOutput(0);
-            assert state.getLink().equals(links.get(i)) : "'link' has not changed";
-            assert state.getTo().equals(bob) : "'to' has been resolved";
+        ResolveResult result = resolveFlowFuture.get();
+        assert result.getResolved() == links.size() : "all shared items have been resolved";
+        assert result.getTransactions() == links.size() : "one transaction per item";
+        assert a.getServices().getValidatedTransactions().getTransaction(result.getLastTxId()) != null : "the last transaction has been recorded";
+
+        List<StateAndRef<SharedItemState>> resolved = queryVault(a, new SharedItemFilter().setTo(bob.getName()));
+        assert resolved.size() == links.size() : "every item is now shared with bob";
+        List<String> resolvedLinks = new ArrayList<>();
+        for (StateAndRef<SharedItemState> stateAndRef: resolved) {
+            SharedItemState state = stateAndRef.getState().getData();
+            assert state.getToTmpId().equals(tmpId): "'toTmpId' has not changed";
+            resolvedLinks.add(state.getLink());
+        }
+
+        assert resolvedLinks.containsAll(links) : "'link' has not changed";
+    }
+
+    @Test
+    public void shareAndResolveToInBatches() throws Exception {
+        List<String> links = ImmutableList.of("link1", "link2", "link3");
+        String tmpId = "Billy Bob";
+        for (String link: links) {
+            CordaFuture<SignedTransaction> createFlowFuture = a.getServices().startFlow(new SharedItemCreateFlow(tmpId, link)).getResultFuture();
+            network.runNetwork();
+            createFlowFuture.get();
+        }
+
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        ResolveToIdentityFlow resolveFlow = new ResolveToIdentityFlow(tmpId, bob, 2);
+        CordaFuture<ResolveResult> resolveFlowFuture = a.getServices().startFlow(resolveFlow).getResultFuture();
+        network.runNetwork();
+
+        ResolveResult result = resolveFlowFuture.get();
+        assert result.getTransactions() == 2 : "items are resolved in batches of 2";
+        assert result.getResolved() == links.size() : "every item has been resolved";
+
+        SignedTransaction last = a.getServices().getValidatedTransactions().getTransaction(result.getLastTxId());
+        assert last.getTx().getInputs().size() == 1 && last.getTx().getOutputs().size() == 1 : "the last batch holds the remaining item";
+
+        List<String> resolvedLinks = new ArrayList<>();
+        for (StateAndRef<SharedItemState> stateAndRef: queryVault(a, new SharedItemFilter().setTo(bob.getName()))) {
+            SharedItemState state = stateAndRef.getState().getData();
             assert state.getToTmpId().equals(tmpId): "'toTmpId' has not changed";
+            resolvedLinks.add(state.getLink());
+        }
+
+        assert resolvedLinks.containsAll(links) && resolvedLinks.size() == links.size() : "every item has been resolved once";
+    }
+
+    @Test
+    public void resolveToDrainsAllPagesForTmpIdOnly() throws Exception {
+        String tmpId = "Billy Bob";
+        String otherTmpId = "Someone Else";
+        List<CordaFuture<SignedTransaction>> futures = ImmutableList.of(
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, "link1")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, "link2")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, "link3")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(otherTmpId, "link4")).getResultFuture()
+        );
+        network.runNetwork();
+        for (CordaFuture<SignedTransaction> future: futures) {
+            future.get();
+        }
+
+        int pageSize = ResolveToIdentityFlow.PAGE_SIZE;
+        ResolveToIdentityFlow.PAGE_SIZE = 2;
+        try {
+            Party bob = b.getInfo().getLegalIdentities().get(0);
+            CordaFuture<ResolveResult> resolveFlowFuture = a.getServices()
+                    .startFlow(new ResolveToIdentityFlow(tmpId, bob))
+                    .getResultFuture();
+            network.runNetwork();
+
+            assert resolveFlowFuture.get().getResolved() == 3 : "items past the first page have been resolved";
+        } finally {
+            ResolveToIdentityFlow.PAGE_SIZE = pageSize;
+        }
+
+        assert queryVault(a, new SharedItemFilter().setUnresolved(true).setToTmpId(tmpId)).isEmpty() : "no items left for tmpId";
+        assert queryVault(a, new SharedItemFilter().setUnresolved(true).setToTmpId(otherTmpId)).size() == 1 : "other tmpIds are untouched";
+    }
+
+    @Test
+    public void shareWithManyRecipients() throws Exception {
+        CordaFuture<SignedTransaction> createFlowFuture = a.getServices()
+                .startFlow(new SharedItemCreateFlow("Billy Bob", "abc"))
+                .getResultFuture();
+        network.runNetwork();
+        SignedTransaction tx = createFlowFuture.get();
+
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        Party carol = c.getInfo().getLegalIdentities().get(0);
+        CordaFuture<List<ShareResult>> shareFlowFuture = a.getServices()
+                .startFlow(new SharedItemMultiShareFlow(ImmutableList.of(bob, carol), tx.getId().toString()))
+                .getResultFuture();
+        network.runNetwork();
+
+        List<ShareResult> results = shareFlowFuture.get();
+        assert results.size() == 2 : "one result per recipient";
+        assert results.get(0).getParty().equals(bob) && results.get(1).getParty().equals(carol) : "results are in recipient order";
+        for (ShareResult result: results) {
+            assert result.isShared() : "every recipient has recorded the transaction";
+        }
+
+        for (StartedNode<MockNetwork.MockNode> node: ImmutableList.of(b, c)) {
+            assert node.getServices().getValidatedTransactions().getTransaction(tx.getId()) != null : "recipient has the transaction";
+            assert queryVault(node, new SharedItemFilter().setLink("abc")).size() == 1 : "recipient has recorded the state";
+        }
+    }
+
+    /**
+     * Ends as soon as it is started, without receiving the transaction.
+     */
+    private static class FailingShareResponder extends FlowLogic<Void> {
+        FailingShareResponder(FlowSession senderSession) {}
+
+        @Override
+        public Void call() {
+            return null;
+        }
+    }
+
+    @Test
+    public void shareWithFailingRecipient() throws Exception {
+        CordaFuture<SignedTransaction> createFlowFuture = a.getServices()
+                .startFlow(new SharedItemCreateFlow("Billy Bob", "abc"))
+                .getResultFuture();
+        network.runNetwork();
+        SignedTransaction tx = createFlowFuture.get();
+
+        // not annotated with @InitiatedBy, so it only replaces carol's responder
+        c.getInternals().internalRegisterFlowFactory(SharedItemMultiShareFlow.class,
+                new InitiatedFlowFactory.Core<>(FailingShareResponder::new), FailingShareResponder.class, false);
+
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        Party carol = c.getInfo().getLegalIdentities().get(0);
+        CordaFuture<List<ShareResult>> shareFlowFuture = a.getServices()
+                .startFlow(new SharedItemMultiShareFlow(ImmutableList.of(carol, bob), tx.getId().toString()))
+                .getResultFuture();
+        network.runNetwork();
+
+        List<ShareResult> results = shareFlowFuture.get();
+        assert !results.get(0).isShared() && results.get(0).getError() != null : "failing recipient is reported";
+        assert results.get(1).isShared() : "other recipients still receive the transaction";
+        assert b.getServices().getValidatedTransactions().getTransaction(tx.getId()) != null;
+    }
+
+    @Test
+    public void bulkShareInDependencyOrder() throws Exception {
+        String tmpId = "Billy Bob";
+        List<String> txIds = new ArrayList<>();
+        for (String link: ImmutableList.of("link1", "link2")) {
+            CordaFuture<SignedTransaction> createFlowFuture = a.getServices().startFlow(new SharedItemCreateFlow(tmpId, link)).getResultFuture();
+            network.runNetwork();
+            txIds.add(createFlowFuture.get().getId().toString());
         }
+
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        CordaFuture<ResolveResult> resolveFlowFuture = a.getServices().startFlow(new ResolveToIdentityFlow(tmpId, bob, 2)).getResultFuture();
+        network.runNetwork();
+        // the resolution spends both items, but is listed first
+        txIds.add(0, resolveFlowFuture.get().getLastTxId().toString());
+
+        Party carol = c.getInfo().getLegalIdentities().get(0);
+        CordaFuture<Integer> shareFlowFuture = a.getServices().startFlow(new SharedItemBulkShareFlow(carol, txIds)).getResultFuture();
+        network.runNetwork();
+        assert shareFlowFuture.get() == txIds.size() : "every transaction is shared";
+
+        for (String txId: txIds) {
+            assert c.getServices().getValidatedTransactions().getTransaction(SecureHash.parse(txId)) != null : "recipient has the transaction";
+        }
+
+        assert queryVault(c, new SharedItemFilter().setTo(bob.getName())).size() == 2 : "recipient has recorded the resolved items";
+        assert queryVault(c, new SharedItemFilter().setUnresolved(true)).isEmpty() : "recipient has recorded the unresolved items as consumed";
+
+        CordaFuture<Integer> reshareFlowFuture = a.getServices().startFlow(new SharedItemBulkShareFlow(carol, txIds)).getResultFuture();
+        network.runNetwork();
+        assert reshareFlowFuture.get() == 0 : "transactions the recipient has are not sent again";
+    }
+
+    @Test
+    public void bulkCreate() throws Exception {
+        List<String> links = ImmutableList.of("link1", "link2", "link3");
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        CordaFuture<SignedTransaction> createFlowFuture = a.getServices()
+                .startFlow(new SharedItemBulkCreateFlow(bob, links))
+                .getResultFuture();
+        network.runNetwork();
+
+        SignedTransaction tx = createFlowFuture.get();
+        tx.verifyRequiredSignatures();
+        assert tx.getTx().getOutputs().size() == links.size() : "one output per link in a single transaction";
+        for (int i = 0; i < links.size(); i++) {
+            SharedItemState state = (SharedItemState) tx.getTx().getOutput(i);
+            assert state.getLink().equals(links.get(i)) : "outputs are in link order";
+            assert state.getTo().equals(bob) : "all outputs are shared with the same party";
+        }
+
+        assert queryVault(b, new SharedItemFilter().setTo(bob.getName())).size() == links.size() : "counterparty has recorded all items";
+    }
+
+    @Test
+    public void createWithoutNotary() throws Exception {
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        CordaFuture<SignedTransaction> createFlowFuture = a.getServices()
+                .startFlow(new SharedItemCreateFlow(bob, "abc", false))
+                .getResultFuture();
+        network.runNetwork();
+
+        SignedTransaction tx = createFlowFuture.get();
+        tx.verifyRequiredSignatures();
+        assert tx.getTx().getTimeWindow() == null : "no time window is attached";
+
+        Party notary = a.getServices().getNetworkMapCache().getNotaryIdentities().get(0);
+        IdentityService identities = a.getServices().getIdentityService();
+        for (TransactionSignature sig: tx.getSigs()) {
+            assert !identities.certificateFromKey(sig.getBy()).getParty().equals(notary) : "the notary has not signed";
+        }
+
+        assert b.getServices().getValidatedTransactions().getTransaction(tx.getId()) != null : "counterparty has recorded the transaction";
+    }
+
+    @Test
+    public void createWithoutNotaryChecksOwnClock() throws Exception {
+        Duration maxClockSkew = CreateFlowResponder.MAX_CLOCK_SKEW;
+        // any timestamp is now too far off
+        CreateFlowResponder.MAX_CLOCK_SKEW = Duration.ofMillis(-1);
+        try {
+            CordaFuture<SignedTransaction> createFlowFuture = a.getServices()
+                    .startFlow(new SharedItemCreateFlow("Billy Bob", "abc", false))
+                    .getResultFuture();
+            network.runNetwork();
+
+            exception.expect(ExecutionException.class);
+            exception.expectCause(instanceOf(FlowException.class));
+            createFlowFuture.get();
+        } finally {
+            CreateFlowResponder.MAX_CLOCK_SKEW = maxClockSkew;
+        }
+    }
+
+    @Test
+    public void listWithFilterQueriesVault() throws Exception {
+        String tmpId = "Billy Bob";
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        List<CordaFuture<SignedTransaction>> futures = ImmutableList.of(
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, "link1")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, "link2")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(bob, "link1")).getResultFuture()
+        );
+        network.runNetwork();
+        for (CordaFuture<SignedTransaction> future: futures) {
+            future.get();
+        }
+
+        List<StateAndRef<SharedItemState>> byLink = queryVault(a, new SharedItemFilter().setLink("link1"));
+        assert byLink.size() == 2 : "both items with link1 are matched";
+
+        List<StateAndRef<SharedItemState>> unresolved = queryVault(a, new SharedItemFilter()
+                .setUnresolved(true)
+                .setToTmpId(tmpId)
+                .setLink("link2"));
+        assert unresolved.size() == 1 : "only the unresolved item with link2 is matched";
+        assert unresolved.get(0).getState().getData().getTo() == null : "'to' is unresolved";
+
+        List<StateAndRef<SharedItemState>> toBob = queryVault(a, new SharedItemFilter().setTo(bob.getName()));
+        assert toBob.size() == 1 : "only the item shared with bob is matched";
+        assert toBob.get(0).getState().getData().getTo().equals(bob) : "'to' is bob";
+    }
+
+    @Test
+    public void lookupByManyLinks() throws Exception {
+        String tmpId = "Billy Bob";
+        String longLink = new String(new char[1000]).replace('\0', 'x');
+        List<CordaFuture<SignedTransaction>> futures = ImmutableList.of(
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, "link1")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, "link2")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(tmpId, longLink)).getResultFuture()
+        );
+        network.runNetwork();
+        for (CordaFuture<SignedTransaction> future: futures) {
+            future.get();
+        }
+
+        List<StateAndRef<SharedItemState>> found = queryVault(a, new SharedItemFilter().setLinks(ImmutableList.of("link1", longLink, "unknown")));
+        assert found.size() == 2 : "only items with the given links are matched";
+        for (StateAndRef<SharedItemState> item: found) {
+            String link = item.getState().getData().getLink();
+            assert link.equals("link1") || link.equals(longLink) : "links of any length are matched";
+        }
+    }
+
+    @Test
+    public void timeRangeQueries() throws Exception {
+        List<Long> timestamps = new ArrayList<>();
+        for (String link: ImmutableList.of("link1", "link2")) {
+            CordaFuture<SignedTransaction> createFlowFuture = a.getServices().startFlow(new SharedItemCreateFlow("Billy Bob", link)).getResultFuture();
+            network.runNetwork();
+            timestamps.add(((SharedItemState) createFlowFuture.get().getTx().getOutput(0)).getTimestamp());
+            Thread.sleep(2);
+        }
+
+        List<StateAndRef<SharedItemState>> recent = queryVault(a, new SharedItemFilter().setSince(timestamps.get(1)));
+        assert recent.size() == 1 && recent.get(0).getState().getData().getLink().equals("link2") : "'since' is an inclusive lower bound";
+
+        List<StateAndRef<SharedItemState>> old = queryVault(a, new SharedItemFilter().setUntil(timestamps.get(0)));
+        assert old.size() == 1 && old.get(0).getState().getData().getLink().equals("link1") : "'until' is an inclusive upper bound";
+
+        assert queryVault(a, new SharedItemFilter().setSince(timestamps.get(0)).setUntil(timestamps.get(1))).size() == 2 : "both bounds together";
+    }
+
+    @Test
+    public void groupedStats() throws Exception {
+        Party bob = b.getInfo().getLegalIdentities().get(0);
+        List<CordaFuture<SignedTransaction>> futures = ImmutableList.of(
+                a.getServices().startFlow(new SharedItemCreateFlow("joe", "link1")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow("joe", "link2")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow("ann", "link3")).getResultFuture(),
+                a.getServices().startFlow(new SharedItemCreateFlow(bob, "link4")).getResultFuture()
+        );
+        network.runNetwork();
+        for (CordaFuture<SignedTransaction> future: futures) {
+            future.get();
+        }
+
+        List<ItemStats> byTmpId = stats(a, new SharedItemFilter(), SharedItemSchemaV2.toTmpId, 0);
+        assert byTmpId.size() == 3 : "one entry per tmpId, and one for items without";
+        assert byTmpId.get(0).getGroup().equals("ann") && byTmpId.get(0).getCount() == 1;
+        assert byTmpId.get(1).getGroup().equals("joe") && byTmpId.get(1).getCount() == 2;
+        assert byTmpId.get(2).getGroup() == null && byTmpId.get(2).getCount() == 1 : "items without a tmpId are counted last";
+
+        List<ItemStats> byTo = stats(a, new SharedItemFilter(), SharedItemSchemaV2.to, 0);
+        assert byTo.size() == 2;
+        assert byTo.get(0).getGroup().equals(bob.getName().toString()) && byTo.get(0).getCount() == 1;
+        assert byTo.get(1).getGroup() == null && byTo.get(1).getCount() == 3 : "unresolved items are counted under null";
+
+        List<ItemStats> joe = stats(a, new SharedItemFilter().setToTmpId("joe"), SharedItemSchemaV2.toTmpId, 0);
+        assert joe.size() == 1 && joe.get(0).getCount() == 2 : "filter conditions apply before grouping";
+
+        assert stats(a, new SharedItemFilter(), SharedItemSchemaV2.toTmpId, 2).size() == 2 : "at most limit groups are returned";
+
+        List<ItemStats> all = stats(a, new SharedItemFilter().setUnresolved(true), null, 0);
+        assert all.size() == 1 && all.get(0).getCount() == 3;
+        assert all.get(0).getFirstTimestamp() <= all.get(0).getLastTimestamp();
+
+        List<ItemStats> none = stats(a, new SharedItemFilter().setToTmpId("nobody"), null, 0);
+        assert none.size() == 1 && none.get(0).getCount() == 0 && none.get(0).getFirstTimestamp() == null : "an ungrouped count of nothing is 0";
+    }
+
+    private List<ItemStats> stats(StartedNode<MockNetwork.MockNode> node, SharedItemFilter filter, Field groupBy, int limit) throws Exception {
+        String column = groupBy == null ? null : groupBy.getName();
+        CordaFuture<List<ItemStats>> future = node.getServices().startFlow(new SharedItemStatsFlow(filter, column, limit)).getResultFuture();
+        network.runNetwork();
+        return future.get();
+    }
+
+    private static List<StateAndRef<SharedItemState>> queryVault(StartedNode<MockNetwork.MockNode> node, SharedItemFilter filter) {
+        return node.getDatabase().transaction(tx -> node.getServices()
+                .getVaultService()
+                .queryBy(SharedItemState.class, filter.toCriteria())
+                .getStates());
     }
 }
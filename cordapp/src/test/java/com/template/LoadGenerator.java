@@ -0,0 +1,308 @@
+package com.template;
+
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.node.services.transactions.ValidatingNotaryService;
+import net.corda.nodeapi.User;
+import net.corda.nodeapi.internal.ServiceInfo;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Collections.singleton;
+import static net.corda.node.services.FlowPermissions.startFlowPermission;
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * Starts a driver network with a notary and N parties, and runs a mix of create, resolve and share flows against
+ * it at a target rate, to find where throughput stops keeping up. Reports throughput, latency percentiles and
+ * failure rates per flow type.
+ *
+ * Run with: ./gradlew cordapp:runLoadTest [-Pparties=3] [-Prate=20] [-Pduration=60] [-Pmix=create=60,resolve=20,share=20]
+ * [-PmaxInFlight=200]
+ *
+ * Flows are started at the target rate whether or not earlier ones have finished, up to maxInFlight. Starts
+ * skipped because maxInFlight was reached are reported as dropped: if there are any, the network is saturated at
+ * that rate.
+ *
+ * Each resolve takes a tmpId of its node that no other resolve in flight holds, so concurrent resolves don't
+ * consume the same items; a resolve for which every tmpId is taken is also reported as dropped. A share on a node
+ * that has created nothing yet is started as a create instead, and counted as one.
+ */
+public class LoadGenerator {
+    private static final String CREATE = "create";
+    private static final String RESOLVE = "resolve";
+    private static final String SHARE = "share";
+    // unresolved items are created for these tmpIds per node, so resolve flows have something to do
+    private static final int TMP_IDS = 100;
+    // recent transactions per node that share flows pick from
+    private static final int RECENT_TXS = 1000;
+
+    private final List<CordaRPCOps> nodes;
+    private final List<Party> parties;
+    private final Map<String, Integer> mix;
+    private final int totalWeight;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Random random = new Random();
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final List<Deque<SecureHash>> recentTxs = new ArrayList<>();
+    // per node, the tmpIds no resolve in flight holds
+    private final List<Queue<String>> freeTmpIds = new ArrayList<>();
+
+    private LoadGenerator(List<CordaRPCOps> nodes, List<Party> parties, Map<String, Integer> mix, int maxInFlight) {
+        this.nodes = nodes;
+        this.parties = parties;
+        this.mix = mix;
+        this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        for (String flow: mix.keySet()) {
+            stats.put(flow, new Stats());
+        }
+
+        for (int i = 0; i < nodes.size(); i++) {
+            recentTxs.add(new ArrayDeque<>());
+            Queue<String> tmpIds = new ConcurrentLinkedQueue<>();
+            for (int j = 0; j < TMP_IDS; j++) {
+                tmpIds.add("tmp" + j);
+            }
+
+            freeTmpIds.add(tmpIds);
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        int partyCount = Integer.parseInt(options.getOrDefault("parties", "3"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "20"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "200"));
+        Map<String, Integer> mix = parseMix(options.getOrDefault("mix", "create=60,resolve=20,share=20"));
+        if (partyCount < 2) throw new IllegalArgumentException("at least 2 parties are needed");
+
+        final User user = new User("user1", "test", ImmutableSet.of(
+                startFlowPermission(SharedItemCreateFlow.class),
+                startFlowPermission(ResolveToIdentityFlow.class),
+                startFlowPermission(SharedItemShareFlow.class)));
+
+        driver(new DriverParameters().setIsDebug(false), dsl -> {
+            dsl.startNode(new NodeParameters()
+                    .setProvidedName(new CordaX500Name("NetworkMapAndNotary", "London", "GB"))
+                    .setAdvertisedServices(singleton(new ServiceInfo(ValidatingNotaryService.Companion.getType(), null))));
+
+            List<CordaFuture<NodeHandle>> futures = new ArrayList<>();
+            for (int i = 1; i <= partyCount; i++) {
+                futures.add(dsl.startNode(new NodeParameters()
+                        .setProvidedName(new CordaX500Name("Party" + i, "London", "GB"))
+                        .setRpcUsers(ImmutableList.of(user))));
+            }
+
+            try {
+                List<CordaRPCOps> nodes = new ArrayList<>();
+                List<Party> parties = new ArrayList<>();
+                for (CordaFuture<NodeHandle> future: futures) {
+                    NodeHandle handle = future.get();
+                    nodes.add(handle.getRpc());
+                    parties.add(handle.getNodeInfo().getLegalIdentities().get(0));
+                }
+
+                LoadGenerator generator = new LoadGenerator(nodes, parties, mix, maxInFlight);
+                System.out.printf("parties: %d, rate: %.1f/s, duration: %ds, mix: %s, max in flight: %d%n",
+                        partyCount, rate, duration, mix, maxInFlight);
+                generator.run(rate, duration);
+                generator.report(duration);
+            } catch (Exception e) {
+                throw new RuntimeException("Load test failed", e);
+            }
+
+            return null;
+        });
+    }
+
+    private void run(double rate, int durationSeconds) throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        scheduler.scheduleAtFixedRate(this::startOne, 0, periodNanos, TimeUnit.NANOSECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+
+        // let flows already started finish, so their latencies are counted
+        if (!inFlight.tryAcquire(maxInFlight, 60, TimeUnit.SECONDS)) {
+            System.out.println("Some flows were still running after 60s and are not counted");
+        }
+    }
+
+    private void startOne() {
+        int node = random.nextInt(nodes.size());
+        String flow = pickFlow();
+        SecureHash txId = null;
+        if (flow.equals(SHARE)) {
+            txId = recent(node);
+            // nothing created on this node yet
+            if (txId == null) flow = CREATE;
+        }
+
+        // a create may be counted while the mix has none; stats are only added on the scheduler thread
+        Stats flowStats = stats.computeIfAbsent(flow, ignored -> new Stats());
+        if (!inFlight.tryAcquire()) {
+            flowStats.dropped.increment();
+            return;
+        }
+
+        String tmpId;
+        if (flow.equals(RESOLVE)) {
+            tmpId = freeTmpIds.get(node).poll();
+            if (tmpId == null) {
+                flowStats.dropped.increment();
+                inFlight.release();
+                return;
+            }
+        } else {
+            tmpId = "tmp" + random.nextInt(TMP_IDS);
+        }
+
+        long start = System.nanoTime();
+        flowStats.started.increment();
+        CordaFuture<?> result;
+        try {
+            result = start(flow, node, tmpId, txId);
+        } catch (Exception e) {
+            flowStats.failed.increment();
+            release(flow, node, tmpId);
+            return;
+        }
+
+        result.then(future -> {
+            try {
+                Object value = future.get();
+                if (value instanceof SignedTransaction) remember(node, ((SignedTransaction) value).getId());
+                flowStats.latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                flowStats.succeeded.increment();
+            } catch (Exception e) {
+                flowStats.failed.increment();
+            } finally {
+                release(flow, node, tmpId);
+            }
+
+            return null;
+        });
+    }
+
+    private void release(String flow, int node, String tmpId) {
+        if (flow.equals(RESOLVE)) freeTmpIds.get(node).add(tmpId);
+        inFlight.release();
+    }
+
+    private CordaFuture<?> start(String flow, int node, String tmpId, SecureHash txId) {
+        CordaRPCOps rpc = nodes.get(node);
+        switch (flow) {
+            case CREATE:
+                String link = UUID.randomUUID().toString();
+                // half the items are shared with a party, half with a tmpId to be resolved later
+                if (random.nextBoolean()) {
+                    return rpc.startFlowDynamic(SharedItemCreateFlow.class, otherParty(node), link).getReturnValue();
+                }
+
+                return rpc.startFlowDynamic(SharedItemCreateFlow.class, tmpId, link).getReturnValue();
+            case RESOLVE:
+                return rpc.startFlowDynamic(ResolveToIdentityFlow.class, tmpId, otherParty(node)).getReturnValue();
+            case SHARE:
+                return rpc.startFlowDynamic(SharedItemShareFlow.class, otherParty(node), txId.toString()).getReturnValue();
+            default:
+                throw new IllegalArgumentException("unknown flow: " + flow);
+        }
+    }
+
+    private Party otherParty(int node) {
+        int other = random.nextInt(parties.size() - 1);
+        return parties.get(other >= node ? other + 1 : other);
+    }
+
+    private String pickFlow() {
+        int pick = random.nextInt(totalWeight);
+        for (Map.Entry<String, Integer> entry: mix.entrySet()) {
+            pick -= entry.getValue();
+            if (pick < 0) return entry.getKey();
+        }
+
+        throw new IllegalStateException();
+    }
+
+    private void remember(int node, SecureHash txId) {
+        Deque<SecureHash> txs = recentTxs.get(node);
+        synchronized (txs) {
+            txs.addFirst(txId);
+            if (txs.size() > RECENT_TXS) txs.removeLast();
+        }
+    }
+
+    private SecureHash recent(int node) {
+        Deque<SecureHash> txs = recentTxs.get(node);
+        synchronized (txs) {
+            return txs.peekFirst();
+        }
+    }
+
+    private void report(int durationSeconds) {
+        System.out.printf("%-8s %9s %9s %9s %9s %12s %10s %10s %10s%n",
+                "flow", "started", "succeeded", "failed", "dropped", "per second", "p50 (ms)", "p99 (ms)", "failed %");
+        for (Map.Entry<String, Stats> entry: stats.entrySet()) {
+            Stats s = entry.getValue();
+            LatencySnapshot latency = LatencySnapshot.of(s.latency);
+            long started = s.started.sum();
+            long failed = s.failed.sum();
+            System.out.printf("%-8s %9d %9d %9d %9d %12.1f %10d %10d %10.1f%n",
+                    entry.getKey(), started, s.succeeded.sum(), failed, s.dropped.sum(),
+                    (double) s.succeeded.sum() / durationSeconds,
+                    latency.getP50(), latency.getP99(),
+                    started == 0 ? 0.0 : 100.0 * failed / started);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("expected an option, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        return options;
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part: mix.split(",")) {
+            String[] weight = part.split("=");
+            if (!ImmutableSet.of(CREATE, RESOLVE, SHARE).contains(weight[0])) {
+                throw new IllegalArgumentException("unknown flow in mix: " + weight[0]);
+            }
+
+            weights.put(weight[0], Integer.parseInt(weight[1]));
+        }
+
+        return weights;
+    }
+
+    private static class Stats {
+        final LongAdder started = new LongAdder();
+        final LongAdder succeeded = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        // sampled uniformly, as percentiles are reported for the whole run
+        final Timer latency = new Timer(new UniformReservoir());
+    }
+}
@@ -0,0 +1,132 @@
+package com.template;
+
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import net.corda.node.internal.StartedNode;
+import net.corda.testing.node.MockNetwork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rx.subjects.PublishSubject;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PartyCacheTest {
+    private MockNetwork network;
+    private NodeInfo a;
+    private NodeInfo b;
+    private Party alice;
+    private Party bob;
+
+    // what the stub node's network map currently holds
+    private final Map<CordaX500Name, Party> networkMap = new HashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicInteger subscriptions = new AtomicInteger();
+    private PublishSubject<NetworkMapCache.MapChange> updates;
+    private CordaRPCOps rpcOps;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork();
+        List<StartedNode<MockNetwork.MockNode>> nodes = network.createSomeNodes(2).getPartyNodes();
+        a = nodes.get(0).getInfo();
+        b = nodes.get(1).getInfo();
+        alice = a.getLegalIdentities().get(0);
+        bob = b.getLegalIdentities().get(0);
+        networkMap.put(alice.getName(), alice);
+
+        rpcOps = (CordaRPCOps) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { CordaRPCOps.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "networkMapFeed":
+                    subscriptions.incrementAndGet();
+                    updates = PublishSubject.create();
+                    List<NodeInfo> snapshot = networkMap.containsKey(alice.getName())
+                            ? Collections.singletonList(a)
+                            : Collections.emptyList();
+                    return new DataFeed<>(snapshot, updates);
+                case "wellKnownPartyFromX500Name":
+                    lookups.incrementAndGet();
+                    return networkMap.get(args[0]);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    @Test
+    public void filledFromSnapshot() {
+        PartyCache cache = new PartyCache(rpcOps);
+
+        assert cache.wellKnownPartyFromX500Name(alice.getName()).equals(alice);
+        assert lookups.get() == 0 : "party in the snapshot is not looked up";
+        assert cache.wellKnownPartyFromX500Name(bob.getName()) == null;
+        assert lookups.get() == 1 : "unknown party is looked up";
+    }
+
+    @Test
+    public void followsNetworkMapUpdates() {
+        PartyCache cache = new PartyCache(rpcOps);
+
+        networkMap.put(bob.getName(), bob);
+        updates.onNext(new NetworkMapCache.MapChange.Added(b));
+        assert cache.wellKnownPartyFromX500Name(bob.getName()).equals(bob);
+        assert lookups.get() == 0 : "added party is not looked up";
+
+        networkMap.remove(bob.getName());
+        updates.onNext(new NetworkMapCache.MapChange.Removed(b));
+        assert cache.wellKnownPartyFromX500Name(bob.getName()) == null : "removed party is dropped";
+    }
+
+    @Test
+    public void modifiedNodeDropsPreviousIdentities() {
+        PartyCache cache = new PartyCache(rpcOps);
+
+        // a's entry is replaced by b, so alice's name no longer belongs to a node
+        networkMap.remove(alice.getName());
+        networkMap.put(bob.getName(), bob);
+        updates.onNext(new NetworkMapCache.MapChange.Modified(b, a));
+
+        assert cache.wellKnownPartyFromX500Name(alice.getName()) == null : "previous identity is dropped";
+        assert cache.wellKnownPartyFromX500Name(bob.getName()).equals(bob);
+        assert lookups.get() == 1 : "only the dropped identity is looked up";
+    }
+
+    @Test
+    public void bypassesCacheAfterFeedFailsUntilResubscribed() {
+        long interval = PartyCache.RESUBSCRIBE_INTERVAL_MILLIS;
+        PartyCache.RESUBSCRIBE_INTERVAL_MILLIS = Long.MAX_VALUE;
+        try {
+            PartyCache cache = new PartyCache(rpcOps);
+            updates.onError(new IllegalStateException("connection lost"));
+
+            // changes the cache can't see any more
+            networkMap.remove(alice.getName());
+            assert cache.wellKnownPartyFromX500Name(alice.getName()) == null : "stale entry is not served";
+            networkMap.put(alice.getName(), alice);
+            cache.wellKnownPartyFromX500Name(alice.getName());
+            assert lookups.get() == 2 : "every read is looked up";
+            assert subscriptions.get() == 1 : "not resubscribed before the interval";
+
+            PartyCache.RESUBSCRIBE_INTERVAL_MILLIS = 0;
+            assert cache.wellKnownPartyFromX500Name(alice.getName()).equals(alice);
+            assert subscriptions.get() == 2 : "resubscribed after the interval";
+            assert lookups.get() == 2 : "served from the cache again";
+        } finally {
+            PartyCache.RESUBSCRIBE_INTERVAL_MILLIS = interval;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.template;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class QueryCoalescerTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> void sneakyThrow(Throwable e) throws E {
+        throw (E) e;
+    }
+
+    /**
+     * Starts a query that blocks until released, then a second caller for the same key, and waits until the second
+     * caller is waiting on the first one's result.
+     *
+     * @return the second caller's result
+     */
+    private Future<String> joinRunningQuery(QueryCoalescer coalescer, CountDownLatch release, Supplier<String> result) throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        executor.submit(() -> coalescer.get("key", () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            return result.get();
+        }));
+        assert running.await(5, TimeUnit.SECONDS);
+
+        Future<String> joined = executor.submit(() -> coalescer.get("key", () -> "not shared"));
+        for (int i = 0; coalescer.getCoalesced() == 0; i++) {
+            assert i < 500 : "second caller joins the running query";
+            Thread.sleep(10);
+        }
+
+        return joined;
+    }
+
+    @Test
+    public void concurrentCallersShareOneQuery() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer(null);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> joined = joinRunningQuery(coalescer, release, () -> "result");
+
+        release.countDown();
+        assert joined.get(5, TimeUnit.SECONDS).equals("result");
+        assert coalescer.getQueries() == 1;
+        assert coalescer.getCoalesced() == 1;
+    }
+
+    @Test
+    public void waitersSeeRuntimeException() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer(null);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> joined = joinRunningQuery(coalescer, release, () -> { throw new IllegalStateException("query failed"); });
+
+        release.countDown();
+        try {
+            joined.get(5, TimeUnit.SECONDS);
+            assert false;
+        } catch (ExecutionException e) {
+            assert e.getCause() instanceof IllegalStateException;
+        }
+    }
+
+    @Test
+    public void waitersSeeError() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer(null);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> joined = joinRunningQuery(coalescer, release, () -> { throw new OutOfMemoryError("query failed"); });
+
+        release.countDown();
+        try {
+            joined.get(5, TimeUnit.SECONDS);
+            assert false;
+        } catch (ExecutionException e) {
+            assert e.getCause() instanceof OutOfMemoryError : "waiters don't hang when the query throws an Error";
+        }
+    }
+
+    @Test
+    public void waitersSeeSneakyCheckedException() throws Exception {
+        QueryCoalescer coalescer = new QueryCoalescer(null);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> joined = joinRunningQuery(coalescer, release, () -> {
+            QueryCoalescerTest.<RuntimeException>sneakyThrow(new IOException("query failed"));
+            return null;
+        });
+
+        release.countDown();
+        try {
+            joined.get(5, TimeUnit.SECONDS);
+            assert false;
+        } catch (ExecutionException e) {
+            assert e.getCause() instanceof CompletionException;
+            assert e.getCause().getCause() instanceof IOException;
+        }
+    }
+
+    @Test
+    public void failedQueryIsRunAgain() {
+        QueryCoalescer coalescer = new QueryCoalescer(Duration.ofMinutes(1));
+        try {
+            coalescer.get("key", () -> { throw new IllegalStateException("query failed"); });
+            assert false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assert coalescer.get("key", () -> "result").equals("result") : "a failure is neither shared nor cached";
+    }
+
+    @Test
+    public void invalidateDropsCachedResults() {
+        QueryCoalescer coalescer = new QueryCoalescer(Duration.ofMinutes(1));
+        AtomicInteger runs = new AtomicInteger();
+        Supplier<Integer> query = runs::incrementAndGet;
+
+        assert coalescer.get("key", query) == 1;
+        assert coalescer.get("key", query) == 1 : "result is cached";
+        assert coalescer.getCacheHits() == 1;
+
+        coalescer.invalidate();
+        assert coalescer.get("key", query) == 2 : "result from before the vault changed is dropped";
+    }
+
+    @Test
+    public void disabledRunsEveryQuery() {
+        QueryCoalescer coalescer = QueryCoalescer.disabled();
+        AtomicInteger runs = new AtomicInteger();
+
+        coalescer.get("key", runs::incrementAndGet);
+        coalescer.get("key", runs::incrementAndGet);
+        assert runs.get() == 2;
+        assert coalescer.getQueries() == 2;
+        assert coalescer.getCacheHits() == 0;
+    }
+}
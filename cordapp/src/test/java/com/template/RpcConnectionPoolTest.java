@@ -0,0 +1,139 @@
+package com.template;
+
+import net.corda.core.messaging.CordaRPCOps;
+import org.apache.activemq.artemis.api.core.ActiveMQNotConnectedException;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class RpcConnectionPoolTest {
+    private static class StubConnection implements RpcConnectionPool.Connection {
+        volatile boolean broken;
+        volatile boolean closed;
+
+        @Override
+        public CordaRPCOps getProxy() {
+            return (CordaRPCOps) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { CordaRPCOps.class }, (proxy, method, args) -> {
+                if (!method.getName().equals("currentNodeTime")) throw new UnsupportedOperationException(method.getName());
+                if (broken) throw new ActiveMQNotConnectedException();
+                return Instant.EPOCH;
+            });
+        }
+
+        @Override
+        public void forceClose() {
+            closed = true;
+        }
+
+        @Override
+        public void notifyServerAndClose() {
+            closed = true;
+        }
+    }
+
+    private static StubConnection broken() {
+        StubConnection connection = new StubConnection();
+        connection.broken = true;
+        return connection;
+    }
+
+    /**
+     * Opens the given connections in turn.
+     */
+    @SafeVarargs
+    private static Supplier<RpcConnectionPool.Connection> opener(Supplier<RpcConnectionPool.Connection>... connections) {
+        Queue<Supplier<RpcConnectionPool.Connection>> remaining = new ArrayDeque<>(Arrays.asList(connections));
+        return () -> {
+            Supplier<RpcConnectionPool.Connection> connection;
+            synchronized (remaining) {
+                connection = remaining.remove();
+            }
+
+            return connection.get();
+        };
+    }
+
+    @Test
+    public void replacesFailedConnection() {
+        StubConnection failed = broken();
+        StubConnection replacement = new StubConnection();
+        RpcConnectionPool pool = new RpcConnectionPool(opener(() -> failed, () -> replacement), 1, 4);
+
+        assert pool.getProxy().currentNodeTime().equals(Instant.EPOCH) : "call is retried on the replacement";
+        assert failed.closed;
+        assert !replacement.closed;
+        assert pool.getMetrics().getReconnects() == 1;
+        assert pool.getMetrics().getFailures() == 0;
+    }
+
+    @Test
+    public void failedReconnectIsRetriedOnNextCall() {
+        StubConnection failed = broken();
+        StubConnection replacement = new StubConnection();
+        RpcConnectionPool pool = new RpcConnectionPool(opener(
+                () -> failed,
+                () -> { throw new IllegalStateException("node unreachable"); },
+                () -> replacement), 1, 4);
+
+        try {
+            pool.getProxy().currentNodeTime();
+            assert false : "call fails when no replacement can be opened";
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        assert !failed.closed : "failed connection is kept until a replacement is open";
+        assert pool.getMetrics().getReconnects() == 0;
+
+        assert pool.getProxy().currentNodeTime().equals(Instant.EPOCH) : "next call opens a replacement";
+        assert failed.closed;
+        assert pool.getMetrics().getReconnects() == 1;
+        assert pool.getMetrics().getFailures() == 1;
+    }
+
+    @Test
+    public void reconnectOnlyHoldsUpItsOwnSlot() throws Exception {
+        CountDownLatch opening = new CountDownLatch(1);
+        CountDownLatch open = new CountDownLatch(1);
+        RpcConnectionPool pool = new RpcConnectionPool(opener(
+                RpcConnectionPoolTest::broken,
+                StubConnection::new,
+                () -> {
+                    opening.countDown();
+                    try {
+                        open.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+
+                    return new StubConnection();
+                }), 2, 4);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // the first call goes to the broken connection, and waits for its replacement
+            Future<Instant> reconnecting = executor.submit(() -> pool.getProxy().currentNodeTime());
+            assert opening.await(5, TimeUnit.SECONDS);
+
+            Future<Instant> other = executor.submit(() -> pool.getProxy().currentNodeTime());
+            assert other.get(5, TimeUnit.SECONDS).equals(Instant.EPOCH) : "other connection is usable while one is replaced";
+            assert !reconnecting.isDone();
+
+            open.countDown();
+            assert reconnecting.get(5, TimeUnit.SECONDS).equals(Instant.EPOCH);
+        } finally {
+            open.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
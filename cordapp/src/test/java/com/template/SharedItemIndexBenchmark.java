@@ -0,0 +1,191 @@
+package com.template;
+
+import com.template.schema.SharedItemSchemaV2;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.H2Dialect;
+
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures how the queries run by SharedItemFilter scale with the size of shared_item_states_v2 on an in-memory
+ * H2 database, mirroring the join the vault performs against vault_states.
+ *
+ * Run with: ./gradlew cordapp:runIndexBenchmark [-Psizes=10000,100000,1000000] [-PnoIndexes]
+ *
+ * With the SharedItemSchemaV2 indexes, latencies should stay flat as the table grows. Pass -PnoIndexes to compare
+ * against the same table without them, as in the unindexed V1 layout.
+ */
+public class SharedItemIndexBenchmark {
+    // the connection held by main keeps the in-memory database alive while Hibernate creates the tables
+    private static final String URL = "jdbc:h2:mem:shared_item_benchmark";
+    private static final int QUERIES_PER_PATTERN = 200;
+    private static final int PARTIES = 50;
+    private static final int TMP_IDS = 10000;
+    private static final int RECENT = 1000;
+
+    private static final String JOIN = "SELECT s.transaction_id, s.output_index FROM vault_states v " +
+            "JOIN shared_item_states_v2 s ON v.transaction_id = s.transaction_id AND v.output_index = s.output_index " +
+            "WHERE v.state_status = 0 AND ";
+
+    private static final String[][] PATTERNS = {
+            {"link", JOIN + "s.share_link_hash = ?"},
+            {"unresolved tmpId", JOIN + "s.share_to IS NULL AND s.share_to_tmp = ?"},
+            {"from", JOIN + "s.share_from = ? LIMIT 200"},
+            {"to", JOIN + "s.share_to = ? LIMIT 200"},
+            {"linearId", JOIN + "s.linear_id = ?"},
+            {"recent", JOIN + "s.share_timestamp >= ? ORDER BY s.share_timestamp DESC LIMIT 200"}
+    };
+
+    private final Random random = new Random(42);
+    private final Connection connection;
+    private int rows = 0;
+
+    private SharedItemIndexBenchmark(Connection connection) {
+        this.connection = connection;
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int[] sizes = Arrays.stream((args.length > 0 ? args[0] : "10000,100000,1000000").split(","))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        boolean indexes = !Arrays.asList(args).contains("--no-indexes");
+
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "")) {
+            SharedItemIndexBenchmark benchmark = new SharedItemIndexBenchmark(connection);
+            benchmark.createTables(indexes);
+            System.out.printf("indexes: %s%n", indexes);
+            System.out.printf("%-10s %-18s %12s %12s%n", "rows", "query", "p50 (us)", "p99 (us)");
+            for (int size: sizes) {
+                benchmark.growTo(size);
+                for (String[] pattern: PATTERNS) {
+                    long[] latencies = benchmark.run(pattern[0], pattern[1]);
+                    System.out.printf("%-10d %-18s %12d %12d%n", size, pattern[0],
+                            latencies[latencies.length / 2] / 1000,
+                            latencies[latencies.length * 99 / 100] / 1000);
+                }
+            }
+        }
+    }
+
+    private void createTables(boolean indexes) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // only the vault_states columns the join reads
+            statement.execute("CREATE TABLE vault_states (transaction_id VARCHAR(64) NOT NULL, output_index INT NOT NULL, " +
+                    "state_status INT NOT NULL, PRIMARY KEY (transaction_id, output_index))");
+        }
+
+        // shared_item_states_v2 is created from the entity, so it has the same columns and indexes as on a node
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.URL, URL)
+                .applySetting(AvailableSettings.USER, "sa")
+                .applySetting(AvailableSettings.PASS, "")
+                .applySetting(AvailableSettings.DIALECT, H2Dialect.class.getName())
+                .applySetting(AvailableSettings.HBM2DDL_AUTO, "create")
+                .build();
+        try {
+            new MetadataSources(registry)
+                    .addAnnotatedClass(SharedItemSchemaV2.PersistentSharedItem.class)
+                    .buildMetadata()
+                    .buildSessionFactory()
+                    .close();
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+
+        if (!indexes) {
+            try (Statement statement = connection.createStatement()) {
+                for (Index index: SharedItemSchemaV2.PersistentSharedItem.class.getAnnotation(Table.class).indexes()) {
+                    statement.execute("DROP INDEX " + index.name());
+                }
+            }
+        }
+    }
+
+    private void growTo(int size) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement vault = connection.prepareStatement("INSERT INTO vault_states VALUES (?, ?, ?)");
+             PreparedStatement item = connection.prepareStatement("INSERT INTO shared_item_states_v2 " +
+                     "(transaction_id, output_index, share_from, share_to, share_to_tmp, share_link, share_timestamp, linear_id, share_link_hash) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (; rows < size; rows++) {
+                String txId = String.format("%064x", rows);
+                boolean resolved = random.nextInt(4) != 0;
+                vault.setString(1, txId);
+                vault.setInt(2, 0);
+                // a tenth of the items have been consumed
+                vault.setInt(3, random.nextInt(10) == 0 ? 1 : 0);
+                vault.addBatch();
+
+                item.setString(1, txId);
+                item.setInt(2, 0);
+                item.setString(3, party(random.nextInt(PARTIES)));
+                item.setString(4, resolved ? party(random.nextInt(PARTIES)) : null);
+                item.setString(5, "tmp" + random.nextInt(TMP_IDS));
+                item.setString(6, "link" + rows);
+                item.setLong(7, rows);
+                item.setObject(8, new UUID(0, rows));
+                item.setString(9, SharedItemSchemaV2.hashLink("link" + rows));
+                item.addBatch();
+
+                if (rows % 10000 == 9999) {
+                    vault.executeBatch();
+                    item.executeBatch();
+                }
+            }
+
+            vault.executeBatch();
+            item.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private long[] run(String name, String sql) throws SQLException {
+        long[] latencies = new long[QUERIES_PER_PATTERN];
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < QUERIES_PER_PATTERN; i++) {
+                int row = random.nextInt(rows);
+                switch (name) {
+                    case "link": statement.setString(1, SharedItemSchemaV2.hashLink("link" + row)); break;
+                    case "unresolved tmpId": statement.setString(1, "tmp" + random.nextInt(TMP_IDS)); break;
+                    case "from":
+                    case "to": statement.setString(1, party(random.nextInt(PARTIES))); break;
+                    // the most recent items, which are the last rows inserted
+                    case "recent": statement.setLong(1, rows - RECENT); break;
+                    default: statement.setObject(1, new UUID(0, row));
+                }
+
+                long start = System.nanoTime();
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        results.getString(1);
+                    }
+                }
+
+                latencies[i] = System.nanoTime() - start;
+            }
+        }
+
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static String party(int i) {
+        return String.format("O=Party%d,L=London,C=GB", i);
+    }
+}
@@ -0,0 +1,51 @@
+package com.template;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.StateAndRef;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.template.TestStates.BOB;
+import static com.template.TestStates.item;
+
+/**
+ * The module's serializers are only a drop-in replacement if clients see the same JSON as from corda-jackson's
+ * mapper as is.
+ */
+public class SharedItemJacksonModuleTest {
+    private final ObjectMapper defaultMapper = JacksonSupport.createNonRpcMapper();
+    private final ObjectMapper customMapper = SharedItemJacksonModule.register(JacksonSupport.createNonRpcMapper());
+    private final List<StateAndRef<SharedItemState>> listing = ImmutableList.of(
+            item(BOB, null, "link1"),
+            item(null, "joe", "link2"),
+            item(BOB, "ann", "link with \"quotes\", \\ and\nnewline"));
+
+    private void assertSameJson(Object value) throws IOException {
+        JsonNode expected = defaultMapper.readTree(defaultMapper.writeValueAsBytes(value));
+        JsonNode actual = defaultMapper.readTree(customMapper.writeValueAsBytes(value));
+        assert expected.equals(actual) : "expected " + expected + " but got " + actual;
+    }
+
+    @Test
+    public void stateAndRefListing() throws IOException {
+        assertSameJson(listing);
+    }
+
+    @Test
+    public void state() throws IOException {
+        for (StateAndRef<SharedItemState> stateAndRef: listing) {
+            assertSameJson(stateAndRef.getState().getData());
+        }
+    }
+
+    @Test
+    public void views() throws IOException {
+        assertSameJson(listing.stream().map(SharedItemView::of).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,257 @@
+package com.template;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Sort;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.template.TestStates.item;
+import static com.template.TestStates.update;
+
+public class SharedItemReplicaTest {
+    // the node pages its vault in this order
+    private static final Comparator<StateRef> REF_ORDER = Comparator
+            .comparing((StateRef ref) -> ref.getTxhash().toString())
+            .thenComparingInt(StateRef::getIndex);
+    // pages the stub node returns, whatever size is asked for, so walks span several pages
+    private static final int PAGE_SIZE = 2;
+    private static final int ITEMS = 10;
+
+    private final int maxSeedWalks = SharedItemReplica.MAX_SEED_WALKS;
+    private final long seedBackoffMillis = SharedItemReplica.SEED_BACKOFF_MILLIS;
+    private final long seedRetryMillis = SharedItemReplica.SEED_RETRY_MILLIS;
+    private final StubNode node = new StubNode();
+
+    @Before
+    public void setup() {
+        SharedItemReplica.SEED_BACKOFF_MILLIS = 0;
+        SharedItemReplica.SEED_RETRY_MILLIS = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            // pairs of items share a timestamp
+            StateAndRef<SharedItemState> state = item(null, i % 2 == 0 ? "joe" : "ann", "link" + i, i / 2);
+            node.vault.put(state.getRef(), state);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        SharedItemReplica.MAX_SEED_WALKS = maxSeedWalks;
+        SharedItemReplica.SEED_BACKOFF_MILLIS = seedBackoffMillis;
+        SharedItemReplica.SEED_RETRY_MILLIS = seedRetryMillis;
+    }
+
+    /**
+     * Serves pages by offset from its current vault, as the node does, and counts the reads that reach it.
+     */
+    private static class StubNode implements SharedItemReader {
+        final NavigableMap<StateRef, StateAndRef<SharedItemState>> vault = new TreeMap<>(REF_ORDER);
+        PublishSubject<Vault.Update<SharedItemState>> updates = PublishSubject.create();
+        int walks;
+        int counts;
+        // called with the walk and page number after each page is fetched, before it is handed over
+        BiConsumer<Integer, Integer> afterFetch = (walk, page) -> {};
+
+        void consume(StateAndRef<SharedItemState> state) {
+            vault.remove(state.getRef());
+            updates.onNext(update(Collections.singleton(state), Collections.emptyList()));
+        }
+
+        @Override
+        public void forEachPage(SharedItemFilter filter, int pageSize, Consumer<List<StateAndRef<SharedItemState>>> consumer) {
+            int walk = ++walks;
+            for (int page = 1; ; page++) {
+                List<StateAndRef<SharedItemState>> all = new ArrayList<>(vault.values());
+                int fromIndex = (page - 1) * PAGE_SIZE;
+                if (fromIndex >= all.size()) return;
+
+                List<StateAndRef<SharedItemState>> fetched = new ArrayList<>(all.subList(fromIndex, Math.min(fromIndex + PAGE_SIZE, all.size())));
+                afterFetch.accept(walk, page);
+                consumer.accept(fetched);
+            }
+        }
+
+        @Override
+        public Observable<Vault.Update<SharedItemState>> getUpdates() {
+            // a new feed after the last one failed
+            if (updates.hasThrowable()) updates = PublishSubject.create();
+            return updates;
+        }
+
+        @Override
+        public long count(SharedItemFilter filter) {
+            counts++;
+            return vault.values().stream().filter(state -> filter.matches(state.getState().getData())).count();
+        }
+
+        @Override
+        public ResultPage<StateAndRef<SharedItemState>> page(SharedItemFilter filter, int pageNumber, int pageSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, List<StateAndRef<SharedItemState>>> getStatesWithLinks(Collection<String> links) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ItemStats> stats(SharedItemFilter filter, Field groupBy) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, Long> countByParty() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Party findParty(String name) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static List<StateRef> refs(List<StateAndRef<SharedItemState>> states) {
+        return states.stream().map(StateAndRef::getRef).collect(Collectors.toList());
+    }
+
+    /**
+     * @return whether the replica serves reads and holds exactly the node's unconsumed states
+     */
+    private boolean inSync(SharedItemReplica replica) {
+        int counts = node.counts;
+        List<StateRef> held = refs(replica.page(new SharedItemFilter(), 1, SharedItemClient.MAX_PAGE_SIZE).getItems());
+        return node.counts == counts && replica.size() == node.vault.size() && held.equals(new ArrayList<>(node.vault.keySet()));
+    }
+
+    @Test
+    public void seedsOffTheCallingThread() {
+        List<Runnable> tasks = new ArrayList<>();
+        SharedItemReplica replica = new SharedItemReplica(node, tasks::add);
+
+        assert replica.size() == -1 : "reads go to the node until seeded";
+        assert replica.count(new SharedItemFilter()) == ITEMS;
+        assert node.walks == 0;
+        assert tasks.size() == 1 : "reads don't start another seeding while one is pending";
+
+        tasks.get(0).run();
+        assert inSync(replica);
+        assert node.walks == 1;
+    }
+
+    @Test
+    public void consumingStatesAheadOfTheWalkNeedsNoOtherWalk() {
+        node.afterFetch = (walk, page) -> {
+            if (page == 2) node.consume(node.vault.lastEntry().getValue());
+        };
+        SharedItemReplica replica = new SharedItemReplica(node, Runnable::run);
+
+        assert inSync(replica);
+        assert node.walks == 1 : "later pages weren't shifted";
+    }
+
+    @Test
+    public void consumingStatesTheWalkPassedWalksAgain() {
+        node.afterFetch = (walk, page) -> {
+            // shifts the third page back, so its first state would be skipped
+            if (walk == 1 && page == 2) node.consume(node.vault.firstEntry().getValue());
+        };
+        SharedItemReplica replica = new SharedItemReplica(node, Runnable::run);
+
+        assert inSync(replica);
+        assert node.walks == 2;
+    }
+
+    @Test
+    public void consumingAFetchedStateWalksAgain() {
+        node.afterFetch = (walk, page) -> {
+            // consumed after the second page was fetched, but before the replica has seen the page
+            if (walk == 1 && page == 2) node.consume(new ArrayList<>(node.vault.values()).get(PAGE_SIZE));
+        };
+        SharedItemReplica replica = new SharedItemReplica(node, Runnable::run);
+
+        assert inSync(replica);
+        assert node.walks == 2;
+    }
+
+    @Test
+    public void busyNodeIsSeededByALaterAttempt() {
+        SharedItemReplica.MAX_SEED_WALKS = 3;
+        node.afterFetch = (walk, page) -> {
+            if (walk <= 3 && page == 2) node.consume(node.vault.firstEntry().getValue());
+        };
+        SharedItemReplica replica = new SharedItemReplica(node, Runnable::run);
+        assert node.walks == 3;
+
+        // the read that starts another attempt still goes to the node
+        assert replica.count(new SharedItemFilter()) == ITEMS - 3;
+        assert node.counts == 1;
+        assert inSync(replica);
+        assert node.walks == 4;
+    }
+
+    @Test
+    public void failedFeedIsResubscribedAndReseeded() {
+        SharedItemReplica replica = new SharedItemReplica(node, Runnable::run);
+        assert inSync(replica);
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        replica.getUpdates().subscribe(update -> {}, error::set);
+        node.updates.onError(new IllegalStateException("feed lost"));
+        assert error.get() != null : "subscribers are told the replica's updates stopped";
+
+        // consumed while the replica wasn't watching
+        node.vault.pollFirstEntry();
+        assert replica.count(new SharedItemFilter()) == ITEMS - 1;
+        assert node.counts == 1;
+        assert inSync(replica) : "state consumed while the feed was down is gone";
+
+        node.consume(node.vault.firstEntry().getValue());
+        assert inSync(replica) : "updates are applied from the new feed";
+    }
+
+    @Test
+    public void pagesAndCountsMatchTheNode() {
+        SharedItemReplica replica = new SharedItemReplica(node, Runnable::run);
+        List<StateAndRef<SharedItemState>> all = new ArrayList<>(node.vault.values());
+
+        ResultPage<StateAndRef<SharedItemState>> page = replica.page(new SharedItemFilter(), 2, 3);
+        assert refs(page.getItems()).equals(refs(all.subList(3, 6)));
+        assert page.getTotal() == ITEMS;
+        assert replica.page(new SharedItemFilter(), 5, 3).getItems().isEmpty();
+
+        // the client's order: timestamp, then state ref
+        List<StateAndRef<SharedItemState>> newestFirst = new ArrayList<>(all);
+        newestFirst.sort(Comparator.comparingLong((StateAndRef<SharedItemState> state) -> -state.getState().getData().getTimestamp()));
+        ResultPage<StateAndRef<SharedItemState>> ordered = replica.page(new SharedItemFilter().setTimestampOrder(Sort.Direction.DESC), 1, 5);
+        assert refs(ordered.getItems()).equals(refs(newestFirst.subList(0, 5)));
+
+        SharedItemFilter joe = new SharedItemFilter().setToTmpId("joe");
+        SharedItemFilter recentJoe = new SharedItemFilter().setToTmpId("joe").setSince(2L);
+        assert replica.count(joe) == 5;
+        assert replica.count(recentJoe) == 3;
+        assert replica.page(recentJoe, 1, 2).getTotal() == 3;
+        assert refs(replica.page(recentJoe, 1, 10).getItems()).equals(refs(all.stream()
+                .filter(state -> recentJoe.matches(state.getState().getData()))
+                .collect(Collectors.toList())));
+        assert node.counts == 0 : "reads are served by the replica";
+    }
+}
@@ -0,0 +1,42 @@
+package com.template;
+
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+
+import java.util.Collection;
+
+/**
+ * Parties and states for tests that don't need a running node.
+ */
+final class TestStates {
+    static final Party NOTARY = party("Notary");
+    static final Party ALICE = party("PartyA");
+    static final Party BOB = party("PartyB");
+
+    private TestStates() {}
+
+    static Party party(String organisation) {
+        return new Party(new CordaX500Name(organisation, "London", "GB"), Crypto.generateKeyPair().getPublic());
+    }
+
+    static StateAndRef<SharedItemState> item(Party to, String toTmpId, String link) {
+        return item(to, toTmpId, link, System.currentTimeMillis());
+    }
+
+    static StateAndRef<SharedItemState> item(Party to, String toTmpId, String link, long timestamp) {
+        SharedItemState state = new SharedItemState(ALICE, to, toTmpId, link, timestamp);
+        TransactionState<SharedItemState> txState = new TransactionState<>(state, SharedItemContract.SHARED_SPACE_CONTRACT_ID, NOTARY);
+        return new StateAndRef<>(txState, new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    static Vault.Update<SharedItemState> update(Collection<StateAndRef<SharedItemState>> consumed, Collection<StateAndRef<SharedItemState>> produced) {
+        return new Vault.Update<>(ImmutableSet.copyOf(consumed), ImmutableSet.copyOf(produced), null, Vault.UpdateType.GENERAL);
+    }
+}
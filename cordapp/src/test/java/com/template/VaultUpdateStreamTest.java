@@ -0,0 +1,173 @@
+package com.template;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import net.corda.client.jackson.JacksonSupport;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import org.junit.Test;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.template.TestStates.item;
+import static com.template.TestStates.update;
+
+public class VaultUpdateStreamTest {
+    private final ObjectMapper mapper = SharedItemJacksonModule.register(JacksonSupport.createNonRpcMapper());
+    private final PublishSubject<Vault.Update<SharedItemState>> updates = PublishSubject.create();
+    private List<List<StateAndRef<SharedItemState>>> pages = new ArrayList<>();
+    // called between snapshot pages
+    private Runnable duringSnapshot = () -> {};
+
+    /**
+     * Writes on the calling thread and records the events it is sent.
+     */
+    private class RecordingStream extends VaultUpdateStream {
+        final List<String> events = new ArrayList<>();
+        boolean gone;
+        boolean closed;
+
+        RecordingStream(SharedItemFilter filter) {
+            this(filter, VaultUpdateStream.MAX_BUFFERED_UPDATES);
+        }
+
+        RecordingStream(SharedItemFilter filter, int maxBufferedUpdates) {
+            super(new StubReader(), mapper, filter, Runnable::run, maxBufferedUpdates);
+        }
+
+        @Override
+        public void write(String chunk) throws IOException {
+            if (gone) throw new IOException("consumer went away");
+            events.add(chunk.substring("event: ".length(), chunk.indexOf('\n')));
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private class StubReader implements SharedItemReader {
+        @Override
+        public void forEachPage(SharedItemFilter filter, int pageSize, Consumer<List<StateAndRef<SharedItemState>>> consumer) {
+            for (List<StateAndRef<SharedItemState>> page: pages) {
+                consumer.accept(page);
+                duringSnapshot.run();
+            }
+        }
+
+        @Override
+        public Observable<Vault.Update<SharedItemState>> getUpdates() {
+            return updates;
+        }
+
+        @Override
+        public ResultPage<StateAndRef<SharedItemState>> page(SharedItemFilter filter, int pageNumber, int pageSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, List<StateAndRef<SharedItemState>>> getStatesWithLinks(Collection<String> links) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long count(SharedItemFilter filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ItemStats> stats(SharedItemFilter filter, Field groupBy) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, Long> countByParty() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Party findParty(String name) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void snapshotThenMatchingUpdates() {
+        pages.add(ImmutableList.of(item(null, "joe", "link1")));
+        pages.add(ImmutableList.of(item(null, "joe", "link2")));
+        RecordingStream stream = new RecordingStream(new SharedItemFilter().setToTmpId("joe"));
+        stream.start();
+        assert stream.events.equals(ImmutableList.of("snapshot", "snapshot", "ready"));
+
+        updates.onNext(update(Collections.emptyList(), ImmutableList.of(item(null, "joe", "link3"))));
+        updates.onNext(update(Collections.emptyList(), ImmutableList.of(item(null, "ann", "link4"))));
+        assert stream.events.equals(ImmutableList.of("snapshot", "snapshot", "ready", "update")) : "only matching updates are sent";
+    }
+
+    @Test
+    public void updatesDuringSnapshotAreSentAfterReady() {
+        pages.add(ImmutableList.of(item(null, "joe", "link1")));
+        duringSnapshot = () -> updates.onNext(update(Collections.emptyList(), ImmutableList.of(item(null, "joe", "link2"))));
+        RecordingStream stream = new RecordingStream(new SharedItemFilter());
+        stream.start();
+
+        assert stream.events.equals(ImmutableList.of("snapshot", "ready", "update"));
+    }
+
+    @Test
+    public void overflowClosesStream() {
+        pages.add(ImmutableList.of(item(null, "joe", "link1")));
+        duringSnapshot = () -> {
+            for (int i = 0; i < 3; i++) {
+                updates.onNext(update(Collections.emptyList(), ImmutableList.of(item(null, "joe", "more" + i))));
+            }
+        };
+        RecordingStream stream = new RecordingStream(new SharedItemFilter(), 2);
+        stream.start();
+
+        assert stream.events.equals(ImmutableList.of("snapshot", "ready", "overflow"));
+        assert stream.closed;
+        assert !updates.hasObservers() : "unsubscribed from the vault feed";
+    }
+
+    @Test
+    public void consumerGoingAwayClosesStream() {
+        RecordingStream stream = new RecordingStream(new SharedItemFilter());
+        stream.start();
+        stream.gone = true;
+        updates.onNext(update(Collections.emptyList(), ImmutableList.of(item(null, "joe", "link1"))));
+
+        assert stream.closed;
+        assert !updates.hasObservers() : "unsubscribed from the vault feed";
+    }
+
+    @Test
+    public void closingReleasesSlot() throws IOException {
+        int open = VaultUpdateStream.getSubscribers();
+        int maxSubscribers = open + 1;
+
+        VaultUpdateStream first = VaultUpdateStream.open(new StubReader(), mapper, new SharedItemFilter(), maxSubscribers);
+        assert first != null;
+        assert VaultUpdateStream.open(new StubReader(), mapper, new SharedItemFilter(), maxSubscribers) == null : "no slots left";
+
+        first.close();
+        first.close();
+        assert VaultUpdateStream.getSubscribers() == open : "slot is released once";
+
+        VaultUpdateStream second = VaultUpdateStream.open(new StubReader(), mapper, new SharedItemFilter(), maxSubscribers);
+        assert second != null : "released slot is reused";
+        second.close();
+    }
+}